@@ -15,13 +15,24 @@
  */
 package com.swisscom.ais.client;
 
+import com.swisscom.ais.client.impl.PendingSignatureScheduler;
+import com.swisscom.ais.client.impl.RetryPolicy;
+import com.swisscom.ais.client.model.DocumentStagingMode;
+import com.swisscom.ais.client.model.PdfMemoryUsage;
 import com.swisscom.ais.client.utils.ConfigurationProvider;
 import com.swisscom.ais.client.utils.ConfigurationProviderPropertiesImpl;
+import com.swisscom.ais.client.utils.Utils;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
+import static com.swisscom.ais.client.utils.Utils.getDoubleOrDefault;
 import static com.swisscom.ais.client.utils.Utils.getIntNotNull;
+import static com.swisscom.ais.client.utils.Utils.getIntOrDefault;
+import static com.swisscom.ais.client.utils.Utils.getPropOrDefault;
 
 @SuppressWarnings("unused")
 public class AisClientConfiguration {
@@ -30,6 +41,150 @@ public class AisClientConfiguration {
 
     private int signaturePollingRounds = 10;
 
+    /**
+     * Factor applied to the polling interval after each round. 1.0 means a fixed interval.
+     */
+    private double signaturePollingBackoffMultiplier = 1.0;
+
+    private int signaturePollingMaxIntervalInSeconds = 60;
+
+    /**
+     * Random variation (in percent, +/-) applied to each polling delay, so that the polls of many parallel signatures
+     * do not all fire at the same moment.
+     */
+    private int signaturePollingJitterPercent = 0;
+
+    private int signaturePollingThreadPoolSize = 2;
+
+    /**
+     * Scheduler that polls for the status of the pending signatures. It can be shared between several AIS clients.
+     * When this is not set, the AIS client creates (and owns) its own scheduler, based on this configuration.
+     */
+    private PendingSignatureScheduler pendingSignatureScheduler;
+
+    /**
+     * Number of documents of the same request that are prepared and finalized in parallel. 1 means that documents are processed one after the other.
+     */
+    private int documentProcessingThreads = 1;
+
+    /**
+     * Executor for the parallel processing of the documents of a request. When this is not set and {@link #documentProcessingThreads}
+     * is greater than 1, the AIS client creates (and owns) its own pool. This cannot be the same executor as the {@link #asyncExecutor}:
+     * the asynchronous tasks wait for the processing of their documents, so a shared pool could run out of threads and deadlock.
+     */
+    private ExecutorService documentProcessingExecutor;
+
+    /**
+     * Where the prepared documents are kept while waiting for their signature (see {@link DocumentStagingMode}).
+     */
+    private DocumentStagingMode documentStagingMode = DocumentStagingMode.AUTO;
+
+    /**
+     * In {@link DocumentStagingMode#AUTO} mode, the size (in MB) starting from which a document is staged in a temporary file.
+     */
+    private int documentStagingFileThresholdInMB = 16;
+
+    /**
+     * The folder for the temporary staging files. When this is not set, the default temporary folder of the JVM is used.
+     */
+    private File documentStagingDirectory;
+
+    /**
+     * Where PDFBox keeps the content of the PDF documents while they are loaded and processed (see {@link PdfMemoryUsage}).
+     */
+    private PdfMemoryUsage pdfMemoryUsage = PdfMemoryUsage.MEMORY;
+
+    /**
+     * In {@link PdfMemoryUsage#MIXED} mode, the maximum heap (in MB) used for the content of one PDF document before spilling to disk.
+     */
+    private int pdfMaxMainMemoryInMB = 32;
+
+    /**
+     * In {@link PdfMemoryUsage#TEMP_FILE} and {@link PdfMemoryUsage#MIXED} modes, the maximum disk space (in MB) used for one PDF
+     * document. 0 means no limit.
+     */
+    private int pdfMaxStorageInMB = 0;
+
+    /**
+     * The folder for the temporary files of PDFBox. When this is not set, the default temporary folder of the JVM is used.
+     */
+    private File pdfTempDirectory;
+
+    /**
+     * The maximum number of rendered visible signature templates that the client keeps for reuse. 0 disables the cache (each visible
+     * signature is then rendered from scratch).
+     */
+    private int visualSignatureTemplateCacheSize = 0;
+
+    /**
+     * Whether the space reserved for the signature in the documents is sized from the signatures received so far (see
+     * {@link com.swisscom.ais.client.impl.SignatureSizeEstimator}) instead of the fixed estimate of the signature type.
+     */
+    private boolean signatureSizeAdaptive = false;
+
+    /**
+     * The safety margin (in percent) added to the largest signature size seen so far.
+     */
+    private int signatureSizeMarginPercent = 20;
+
+    /**
+     * The file in which the learned signature sizes are kept across restarts. When this is not set, the sizes are learned again
+     * after each restart.
+     */
+    private File signatureSizeEstimatesFile;
+
+    /**
+     * The maximum number of documents sent in one sign request. Larger lists of documents are split in several batches, each of
+     * them prepared, signed and finalized on its own. 0 (the default) means no limit, so that all the documents go in one request.
+     */
+    private int batchMaxDocuments = 0;
+
+    /**
+     * The number of batches that are signed at the same time, when a list of documents is split in batches.
+     */
+    private int batchParallelBatches = 1;
+
+    private int asyncThreadPoolSize = 4;
+
+    /**
+     * Executor for the asynchronous API. When this is not set, the AIS client creates (and owns) its own pool of
+     * {@link #asyncThreadPoolSize} threads.
+     */
+    private ScheduledExecutorService asyncExecutor;
+
+    /**
+     * The maximum number of attempts (including the first one) for the requests that can safely be repeated: the Pending requests
+     * and the Sign requests for timestamps. 1 means no retries.
+     */
+    private int retryMaxAttempts = 1;
+
+    /**
+     * The delay before the first retry. Each following retry waits {@link #retryBackoffMultiplier} times longer, up to
+     * {@link #retryMaxBackoffInMillis}, with a random variation of {@link #retryJitterPercent} (+/-).
+     */
+    private int retryInitialBackoffInMillis = 200;
+
+    private int retryMaxBackoffInMillis = 5000;
+
+    private double retryBackoffMultiplier = 2.0;
+
+    private int retryJitterPercent = 20;
+
+    /**
+     * The retry budget: each retry takes one token from a bucket that holds at most {@link #retryBudgetCapacity} tokens and is
+     * refilled with {@link #retryBudgetRefillPerSecond} tokens per second. When the bucket is empty, the failures are reported
+     * right away, so that the retries cannot multiply the load on a service that is already failing.
+     */
+    private int retryBudgetCapacity = 10;
+
+    private double retryBudgetRefillPerSecond = 1.0;
+
+    /**
+     * Retry policy (and retry budget) that can be shared between several AIS clients. When this is not set and retries are
+     * enabled, the AIS client creates its own retry policy, based on this configuration.
+     */
+    private RetryPolicy retryPolicy;
+
     public int getSignaturePollingIntervalInSeconds() {
         return signaturePollingIntervalInSeconds;
     }
@@ -54,6 +209,332 @@ public class AisClientConfiguration {
         this.signaturePollingRounds = signaturePollingRounds;
     }
 
+    public double getSignaturePollingBackoffMultiplier() {
+        return signaturePollingBackoffMultiplier;
+    }
+
+    public void setSignaturePollingBackoffMultiplier(double signaturePollingBackoffMultiplier) {
+        if (signaturePollingBackoffMultiplier < 1.0 || signaturePollingBackoffMultiplier > 10.0) {
+            throw new RestClientException("The signaturePollingBackoffMultiplier parameter of the AIS client "
+                                         + "configuration must be between 1.0 and 10.0");
+        }
+        this.signaturePollingBackoffMultiplier = signaturePollingBackoffMultiplier;
+    }
+
+    public int getSignaturePollingMaxIntervalInSeconds() {
+        return signaturePollingMaxIntervalInSeconds;
+    }
+
+    public void setSignaturePollingMaxIntervalInSeconds(int signaturePollingMaxIntervalInSeconds) {
+        if (signaturePollingMaxIntervalInSeconds < 1 || signaturePollingMaxIntervalInSeconds > 300) {
+            throw new RestClientException("The signaturePollingMaxIntervalInSeconds parameter of the AIS client "
+                                         + "configuration must be between 1 and 300 seconds");
+        }
+        this.signaturePollingMaxIntervalInSeconds = signaturePollingMaxIntervalInSeconds;
+    }
+
+    public int getSignaturePollingJitterPercent() {
+        return signaturePollingJitterPercent;
+    }
+
+    public void setSignaturePollingJitterPercent(int signaturePollingJitterPercent) {
+        if (signaturePollingJitterPercent < 0 || signaturePollingJitterPercent > 50) {
+            throw new RestClientException("The signaturePollingJitterPercent parameter of the AIS client "
+                                         + "configuration must be between 0 and 50 percent");
+        }
+        this.signaturePollingJitterPercent = signaturePollingJitterPercent;
+    }
+
+    public int getSignaturePollingThreadPoolSize() {
+        return signaturePollingThreadPoolSize;
+    }
+
+    public void setSignaturePollingThreadPoolSize(int signaturePollingThreadPoolSize) {
+        if (signaturePollingThreadPoolSize < 1 || signaturePollingThreadPoolSize > 64) {
+            throw new RestClientException("The signaturePollingThreadPoolSize parameter of the AIS client "
+                                         + "configuration must be between 1 and 64 threads");
+        }
+        this.signaturePollingThreadPoolSize = signaturePollingThreadPoolSize;
+    }
+
+    public PendingSignatureScheduler getPendingSignatureScheduler() {
+        return pendingSignatureScheduler;
+    }
+
+    public void setPendingSignatureScheduler(PendingSignatureScheduler pendingSignatureScheduler) {
+        this.pendingSignatureScheduler = pendingSignatureScheduler;
+    }
+
+    public int getDocumentProcessingThreads() {
+        return documentProcessingThreads;
+    }
+
+    public void setDocumentProcessingThreads(int documentProcessingThreads) {
+        if (documentProcessingThreads < 1 || documentProcessingThreads > 64) {
+            throw new RestClientException("The documentProcessingThreads parameter of the AIS client "
+                                         + "configuration must be between 1 and 64 threads");
+        }
+        this.documentProcessingThreads = documentProcessingThreads;
+    }
+
+    public ExecutorService getDocumentProcessingExecutor() {
+        return documentProcessingExecutor;
+    }
+
+    public void setDocumentProcessingExecutor(ExecutorService documentProcessingExecutor) {
+        checkSeparateExecutors(asyncExecutor, documentProcessingExecutor);
+        this.documentProcessingExecutor = documentProcessingExecutor;
+    }
+
+    public DocumentStagingMode getDocumentStagingMode() {
+        return documentStagingMode;
+    }
+
+    public void setDocumentStagingMode(DocumentStagingMode documentStagingMode) {
+        if (documentStagingMode == null) {
+            throw new RestClientException("The documentStagingMode parameter of the AIS client configuration cannot be NULL");
+        }
+        this.documentStagingMode = documentStagingMode;
+    }
+
+    public int getDocumentStagingFileThresholdInMB() {
+        return documentStagingFileThresholdInMB;
+    }
+
+    public void setDocumentStagingFileThresholdInMB(int documentStagingFileThresholdInMB) {
+        if (documentStagingFileThresholdInMB < 0 || documentStagingFileThresholdInMB > 2048) {
+            throw new RestClientException("The documentStagingFileThresholdInMB parameter of the AIS client "
+                                         + "configuration must be between 0 and 2048 MB");
+        }
+        this.documentStagingFileThresholdInMB = documentStagingFileThresholdInMB;
+    }
+
+    public File getDocumentStagingDirectory() {
+        return documentStagingDirectory;
+    }
+
+    public void setDocumentStagingDirectory(File documentStagingDirectory) {
+        this.documentStagingDirectory = documentStagingDirectory;
+    }
+
+    public PdfMemoryUsage getPdfMemoryUsage() {
+        return pdfMemoryUsage;
+    }
+
+    public void setPdfMemoryUsage(PdfMemoryUsage pdfMemoryUsage) {
+        if (pdfMemoryUsage == null) {
+            throw new RestClientException("The pdfMemoryUsage parameter of the AIS client configuration cannot be NULL");
+        }
+        this.pdfMemoryUsage = pdfMemoryUsage;
+    }
+
+    public int getPdfMaxMainMemoryInMB() {
+        return pdfMaxMainMemoryInMB;
+    }
+
+    public void setPdfMaxMainMemoryInMB(int pdfMaxMainMemoryInMB) {
+        if (pdfMaxMainMemoryInMB < 1 || pdfMaxMainMemoryInMB > 4096) {
+            throw new RestClientException("The pdfMaxMainMemoryInMB parameter of the AIS client "
+                                         + "configuration must be between 1 and 4096 MB");
+        }
+        this.pdfMaxMainMemoryInMB = pdfMaxMainMemoryInMB;
+    }
+
+    public int getPdfMaxStorageInMB() {
+        return pdfMaxStorageInMB;
+    }
+
+    public void setPdfMaxStorageInMB(int pdfMaxStorageInMB) {
+        if (pdfMaxStorageInMB < 0) {
+            throw new RestClientException("The pdfMaxStorageInMB parameter of the AIS client configuration cannot be negative");
+        }
+        this.pdfMaxStorageInMB = pdfMaxStorageInMB;
+    }
+
+    public File getPdfTempDirectory() {
+        return pdfTempDirectory;
+    }
+
+    public void setPdfTempDirectory(File pdfTempDirectory) {
+        this.pdfTempDirectory = pdfTempDirectory;
+    }
+
+    public int getVisualSignatureTemplateCacheSize() {
+        return visualSignatureTemplateCacheSize;
+    }
+
+    public void setVisualSignatureTemplateCacheSize(int visualSignatureTemplateCacheSize) {
+        if (visualSignatureTemplateCacheSize < 0 || visualSignatureTemplateCacheSize > 1024) {
+            throw new RestClientException("The visualSignatureTemplateCacheSize parameter of the AIS client "
+                                         + "configuration must be between 0 and 1024 templates");
+        }
+        this.visualSignatureTemplateCacheSize = visualSignatureTemplateCacheSize;
+    }
+
+    public boolean isSignatureSizeAdaptive() {
+        return signatureSizeAdaptive;
+    }
+
+    public void setSignatureSizeAdaptive(boolean signatureSizeAdaptive) {
+        this.signatureSizeAdaptive = signatureSizeAdaptive;
+    }
+
+    public int getSignatureSizeMarginPercent() {
+        return signatureSizeMarginPercent;
+    }
+
+    public void setSignatureSizeMarginPercent(int signatureSizeMarginPercent) {
+        if (signatureSizeMarginPercent < 0 || signatureSizeMarginPercent > 500) {
+            throw new RestClientException("The signatureSizeMarginPercent parameter of the AIS client "
+                                         + "configuration must be between 0 and 500 percent");
+        }
+        this.signatureSizeMarginPercent = signatureSizeMarginPercent;
+    }
+
+    public int getBatchMaxDocuments() {
+        return batchMaxDocuments;
+    }
+
+    public void setBatchMaxDocuments(int batchMaxDocuments) {
+        if (batchMaxDocuments < 0) {
+            throw new RestClientException("The batchMaxDocuments parameter of the AIS client configuration cannot be negative");
+        }
+        this.batchMaxDocuments = batchMaxDocuments;
+    }
+
+    public int getBatchParallelBatches() {
+        return batchParallelBatches;
+    }
+
+    public void setBatchParallelBatches(int batchParallelBatches) {
+        if (batchParallelBatches < 1 || batchParallelBatches > 64) {
+            throw new RestClientException("The batchParallelBatches parameter of the AIS client "
+                                         + "configuration must be between 1 and 64 batches");
+        }
+        this.batchParallelBatches = batchParallelBatches;
+    }
+
+    public File getSignatureSizeEstimatesFile() {
+        return signatureSizeEstimatesFile;
+    }
+
+    public void setSignatureSizeEstimatesFile(File signatureSizeEstimatesFile) {
+        this.signatureSizeEstimatesFile = signatureSizeEstimatesFile;
+    }
+
+    public int getAsyncThreadPoolSize() {
+        return asyncThreadPoolSize;
+    }
+
+    public void setAsyncThreadPoolSize(int asyncThreadPoolSize) {
+        if (asyncThreadPoolSize < 1 || asyncThreadPoolSize > 256) {
+            throw new RestClientException("The asyncThreadPoolSize parameter of the AIS client "
+                                         + "configuration must be between 1 and 256 threads");
+        }
+        this.asyncThreadPoolSize = asyncThreadPoolSize;
+    }
+
+    public ScheduledExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public void setAsyncExecutor(ScheduledExecutorService asyncExecutor) {
+        checkSeparateExecutors(asyncExecutor, documentProcessingExecutor);
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        if (retryMaxAttempts < 1 || retryMaxAttempts > 10) {
+            throw new RestClientException("The retryMaxAttempts parameter of the AIS client "
+                                         + "configuration must be between 1 and 10");
+        }
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    public int getRetryInitialBackoffInMillis() {
+        return retryInitialBackoffInMillis;
+    }
+
+    public void setRetryInitialBackoffInMillis(int retryInitialBackoffInMillis) {
+        if (retryInitialBackoffInMillis < 1 || retryInitialBackoffInMillis > 60000) {
+            throw new RestClientException("The retryInitialBackoffInMillis parameter of the AIS client "
+                                         + "configuration must be between 1 and 60000 milliseconds");
+        }
+        this.retryInitialBackoffInMillis = retryInitialBackoffInMillis;
+    }
+
+    public int getRetryMaxBackoffInMillis() {
+        return retryMaxBackoffInMillis;
+    }
+
+    public void setRetryMaxBackoffInMillis(int retryMaxBackoffInMillis) {
+        if (retryMaxBackoffInMillis < 1 || retryMaxBackoffInMillis > 300000) {
+            throw new RestClientException("The retryMaxBackoffInMillis parameter of the AIS client "
+                                         + "configuration must be between 1 and 300000 milliseconds");
+        }
+        this.retryMaxBackoffInMillis = retryMaxBackoffInMillis;
+    }
+
+    public double getRetryBackoffMultiplier() {
+        return retryBackoffMultiplier;
+    }
+
+    public void setRetryBackoffMultiplier(double retryBackoffMultiplier) {
+        if (retryBackoffMultiplier < 1.0 || retryBackoffMultiplier > 10.0) {
+            throw new RestClientException("The retryBackoffMultiplier parameter of the AIS client "
+                                         + "configuration must be between 1.0 and 10.0");
+        }
+        this.retryBackoffMultiplier = retryBackoffMultiplier;
+    }
+
+    public int getRetryJitterPercent() {
+        return retryJitterPercent;
+    }
+
+    public void setRetryJitterPercent(int retryJitterPercent) {
+        if (retryJitterPercent < 0 || retryJitterPercent > 100) {
+            throw new RestClientException("The retryJitterPercent parameter of the AIS client "
+                                         + "configuration must be between 0 and 100 percent");
+        }
+        this.retryJitterPercent = retryJitterPercent;
+    }
+
+    public int getRetryBudgetCapacity() {
+        return retryBudgetCapacity;
+    }
+
+    public void setRetryBudgetCapacity(int retryBudgetCapacity) {
+        if (retryBudgetCapacity < 1 || retryBudgetCapacity > 10000) {
+            throw new RestClientException("The retryBudgetCapacity parameter of the AIS client "
+                                         + "configuration must be between 1 and 10000");
+        }
+        this.retryBudgetCapacity = retryBudgetCapacity;
+    }
+
+    public double getRetryBudgetRefillPerSecond() {
+        return retryBudgetRefillPerSecond;
+    }
+
+    public void setRetryBudgetRefillPerSecond(double retryBudgetRefillPerSecond) {
+        if (retryBudgetRefillPerSecond < 0.01 || retryBudgetRefillPerSecond > 1000.0) {
+            throw new RestClientException("The retryBudgetRefillPerSecond parameter of the AIS client "
+                                         + "configuration must be between 0.01 and 1000.0");
+        }
+        this.retryBudgetRefillPerSecond = retryBudgetRefillPerSecond;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     // ----------------------------------------------------------------------------------------------------
 
     @SuppressWarnings("unused")
@@ -75,6 +556,50 @@ public class AisClientConfiguration {
     public void setFromConfigurationProvider(ConfigurationProvider provider) {
         setSignaturePollingIntervalInSeconds(getIntNotNull(provider, "client.poll.intervalInSeconds"));
         setSignaturePollingRounds(getIntNotNull(provider, "client.poll.rounds"));
+        setSignaturePollingBackoffMultiplier(getDoubleOrDefault(provider, "client.poll.backoffMultiplier", 1.0));
+        setSignaturePollingMaxIntervalInSeconds(getIntOrDefault(provider, "client.poll.maxIntervalInSeconds", 60));
+        setSignaturePollingJitterPercent(getIntOrDefault(provider, "client.poll.jitterPercent", 0));
+        setSignaturePollingThreadPoolSize(getIntOrDefault(provider, "client.poll.threads", 2));
+        setDocumentProcessingThreads(getIntOrDefault(provider, "client.documents.threads", 1));
+        setAsyncThreadPoolSize(getIntOrDefault(provider, "client.async.threads", 4));
+        setDocumentStagingMode(DocumentStagingMode.getByValue(getPropOrDefault(provider, "client.staging.mode", "AUTO")));
+        setDocumentStagingFileThresholdInMB(getIntOrDefault(provider, "client.staging.fileThresholdInMB", 16));
+        String stagingDirectory = provider.getProperty("client.staging.directory");
+        if (Utils.notEmpty(stagingDirectory)) {
+            setDocumentStagingDirectory(new File(stagingDirectory));
+        }
+        setPdfMemoryUsage(PdfMemoryUsage.getByValue(getPropOrDefault(provider, "client.pdf.memoryUsage", "MEMORY")));
+        setPdfMaxMainMemoryInMB(getIntOrDefault(provider, "client.pdf.maxMainMemoryInMB", 32));
+        setPdfMaxStorageInMB(getIntOrDefault(provider, "client.pdf.maxStorageInMB", 0));
+        String pdfTempDirectory = provider.getProperty("client.pdf.tempDirectory");
+        if (Utils.notEmpty(pdfTempDirectory)) {
+            setPdfTempDirectory(new File(pdfTempDirectory));
+        }
+        setVisualSignatureTemplateCacheSize(getIntOrDefault(provider, "client.visualSignature.templateCacheSize", 0));
+        setSignatureSizeAdaptive(Boolean.parseBoolean(getPropOrDefault(provider, "client.signatureSize.adaptive", "false")));
+        setSignatureSizeMarginPercent(getIntOrDefault(provider, "client.signatureSize.marginPercent", 20));
+        String signatureSizeEstimatesFile = provider.getProperty("client.signatureSize.estimatesFile");
+        if (Utils.notEmpty(signatureSizeEstimatesFile)) {
+            setSignatureSizeEstimatesFile(new File(signatureSizeEstimatesFile));
+        }
+        setBatchMaxDocuments(getIntOrDefault(provider, "client.batch.maxDocuments", 0));
+        setBatchParallelBatches(getIntOrDefault(provider, "client.batch.parallelBatches", 1));
+        setRetryMaxAttempts(getIntOrDefault(provider, "client.retry.maxAttempts", 1));
+        setRetryInitialBackoffInMillis(getIntOrDefault(provider, "client.retry.initialBackoffInMillis", 200));
+        setRetryMaxBackoffInMillis(getIntOrDefault(provider, "client.retry.maxBackoffInMillis", 5000));
+        setRetryBackoffMultiplier(getDoubleOrDefault(provider, "client.retry.backoffMultiplier", 2.0));
+        setRetryJitterPercent(getIntOrDefault(provider, "client.retry.jitterPercent", 20));
+        setRetryBudgetCapacity(getIntOrDefault(provider, "client.retry.budgetCapacity", 10));
+        setRetryBudgetRefillPerSecond(getDoubleOrDefault(provider, "client.retry.budgetRefillPerSecond", 1.0));
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static void checkSeparateExecutors(ExecutorService asyncExecutor, ExecutorService documentProcessingExecutor) {
+        if (asyncExecutor != null && asyncExecutor == documentProcessingExecutor) {
+            throw new RestClientException("The documentProcessingExecutor of the AIS client configuration "
+                                         + "cannot be the same executor as the asyncExecutor");
+        }
     }
 
 }
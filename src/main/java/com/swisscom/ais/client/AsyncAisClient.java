@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client;
+
+import com.swisscom.ais.client.model.PdfHandle;
+import com.swisscom.ais.client.model.SignatureResult;
+import com.swisscom.ais.client.model.UserData;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of the {@link AisClient}. Each method returns immediately and the returned future is completed once the
+ * signature is finished (or failed). While a signature is waiting for the mobile user (Step Up), no thread is blocked; the status
+ * polls are scheduled on the client's executor. Failures are signaled by completing the future exceptionally with a
+ * {@link RestClientException}.
+ */
+public interface AsyncAisClient extends Closeable {
+
+    CompletableFuture<SignatureResult> signWithStaticCertificateAsync(List<PdfHandle> documentHandles, UserData userData);
+
+    CompletableFuture<SignatureResult> signWithOnDemandCertificateAsync(List<PdfHandle> documentHandles, UserData userData);
+
+    CompletableFuture<SignatureResult> signWithOnDemandCertificateAndStepUpAsync(List<PdfHandle> documentHandles, UserData userData);
+
+    CompletableFuture<SignatureResult> timestampAsync(List<PdfHandle> documentHandles, UserData userData);
+
+}
@@ -1,10 +1,10 @@
 package com.swisscom.ais.client.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.swisscom.ais.client.RestClientException;
 import com.swisscom.ais.client.AisETSIClient;
 import com.swisscom.ais.client.model.*;
+import com.swisscom.ais.client.rest.JsonCodec;
 import com.swisscom.ais.client.rest.RestClient;
 import com.swisscom.ais.client.rest.RestClientETSIAuthentication;
 import com.swisscom.ais.client.rest.model.DigestAlgorithm;
@@ -61,7 +61,7 @@ public class AISETSIClientImpl implements AisETSIClient {
         documentHandler.setDigestAlgorithm(DigestAlgorithm.SHA256);
         logClient.info("Preparing {} signing for document: {} - {}",
                 SignatureMode.ON_DEMAND.getFriendlyName(),
-                documentHandler.getInputFromFile(),
+                documentHandler.getInputName(),
                 trace.getId());
         return DocumentUtils.prepareOneDocumentForSigning(documentHandler, SignatureMode.ON_DEMAND, SignatureType.CMS, userData, trace);
     }
@@ -117,7 +117,7 @@ public class AISETSIClientImpl implements AisETSIClient {
         DocumentsDigests documentsDigests = new DocumentsDigests(base64HashToSign
                 , split[split.length - 1]);
         raxAuthRequest.setDocumentDigests(Collections.singletonList(documentsDigests));
-        return new ObjectMapper().writeValueAsString(raxAuthRequest);
+        return JsonCodec.getInstance().writerFor(AuthRequest.class).writeValueAsString(raxAuthRequest);
     }
 
 
@@ -17,11 +17,13 @@ package com.swisscom.ais.client.impl;
 
 import com.swisscom.ais.client.AisClient;
 import com.swisscom.ais.client.AisClientConfiguration;
+import com.swisscom.ais.client.AsyncAisClient;
 import com.swisscom.ais.client.RestClientException;
 import com.swisscom.ais.client.model.PdfHandle;
 import com.swisscom.ais.client.model.SignatureMode;
 import com.swisscom.ais.client.model.SignatureResult;
 import com.swisscom.ais.client.model.UserData;
+import com.swisscom.ais.client.rest.AsyncRestClient;
 import com.swisscom.ais.client.rest.RestClient;
 import com.swisscom.ais.client.rest.model.*;
 import com.swisscom.ais.client.rest.model.pendingreq.AISPendingRequest;
@@ -31,7 +33,9 @@ import com.swisscom.ais.client.rest.model.signresp.ResultMessage;
 import com.swisscom.ais.client.rest.model.signresp.ScExtendedSignatureObject;
 import com.swisscom.ais.client.utils.DocumentUtils;
 import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.NamedThreadFactory;
 import com.swisscom.ais.client.utils.Trace;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,18 +44,37 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-public class AisClientImpl implements AisClient {
+public class AisClientImpl implements AisClient, AsyncAisClient {
 
     private static final Logger logClient = LoggerFactory.getLogger(Loggers.CLIENT);
     private static final Logger logProtocol = LoggerFactory.getLogger(Loggers.CLIENT_PROTOCOL);
     private static final String MISSING_MSISDN_MESSAGE = "<MSISDN> is missing";
+    private static final int MAX_PREPARATION_ATTEMPTS = 2;
 
     private RestClient restClient;
     private AisClientConfiguration configuration = new AisClientConfiguration();
 
+    private ScheduledExecutorService ownAsyncExecutor;
+    private PendingSignatureScheduler ownPendingSignatureScheduler;
+    private RetryPolicy ownRetryPolicy;
+    private ExecutorService ownDocumentProcessingExecutor;
+    private VisualSignatureTemplateCache visualSignatureTemplateCache;
+    private SignatureSizeEstimator signatureSizeEstimator;
+    private final Map<CompletableFuture<SignatureResult>, Trace> inFlightSignatures = new ConcurrentHashMap<>();
+
     // ----------------------------------------------------------------------------------------------------
 
     @SuppressWarnings("unused")
@@ -61,11 +84,13 @@ public class AisClientImpl implements AisClient {
 
     public AisClientImpl(RestClient restClient) {
         this.restClient = restClient;
+        updateAutomaticRetries();
     }
 
     public AisClientImpl(AisClientConfiguration configuration, RestClient restClient) {
         this.configuration = configuration;
         this.restClient = restClient;
+        updateAutomaticRetries();
     }
 
     // ----------------------------------------------------------------------------------------------------
@@ -121,8 +146,79 @@ public class AisClientImpl implements AisClient {
                               AdditionalProfile.TIMESTAMP);
     }
 
+    @Override
+    public CompletableFuture<SignatureResult> signWithStaticCertificateAsync(List<PdfHandle> documentHandles, UserData userData) {
+        return performSigningAsync(SignatureMode.STATIC,
+                                   SignatureType.CMS,
+                                   userData,
+                                   documentHandles,
+                                   false,
+                                   false,
+                                   false);
+    }
+
+    @Override
+    @SuppressWarnings("DuplicatedCode")
+    public CompletableFuture<SignatureResult> signWithOnDemandCertificateAsync(List<PdfHandle> documentHandles, UserData userData) {
+        return performSigningAsync(SignatureMode.ON_DEMAND,
+                                   SignatureType.CMS,
+                                   userData,
+                                   documentHandles,
+                                   false,
+                                   true,
+                                   false,
+                                   AdditionalProfile.ON_DEMAND_CERTIFICATE);
+    }
+
+    @Override
+    @SuppressWarnings("DuplicatedCode")
+    public CompletableFuture<SignatureResult> signWithOnDemandCertificateAndStepUpAsync(List<PdfHandle> documentHandles, UserData userData) {
+        return performSigningAsync(SignatureMode.ON_DEMAND_STEP_UP,
+                                   SignatureType.CMS,
+                                   userData,
+                                   documentHandles,
+                                   true,
+                                   true,
+                                   true,
+                                   AdditionalProfile.ON_DEMAND_CERTIFICATE,
+                                   AdditionalProfile.REDIRECT,
+                                   AdditionalProfile.ASYNC);
+    }
+
+    @Override
+    public CompletableFuture<SignatureResult> timestampAsync(List<PdfHandle> documentHandles, UserData userData) {
+        return performSigningAsync(SignatureMode.TIMESTAMP,
+                                   SignatureType.TIMESTAMP,
+                                   userData,
+                                   documentHandles,
+                                   false,
+                                   false,
+                                   false,
+                                   AdditionalProfile.TIMESTAMP);
+    }
+
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            if (ownAsyncExecutor != null) {
+                ownAsyncExecutor.shutdownNow();
+                ownAsyncExecutor = null;
+            }
+            if (ownDocumentProcessingExecutor != null) {
+                ownDocumentProcessingExecutor.shutdownNow();
+                ownDocumentProcessingExecutor = null;
+            }
+            if (ownPendingSignatureScheduler != null) {
+                ownPendingSignatureScheduler.close();
+                ownPendingSignatureScheduler = null;
+            }
+        }
+        // the tasks that were dropped by the executors would never complete these futures
+        List<Map.Entry<CompletableFuture<SignatureResult>, Trace>> remaining = new ArrayList<>(inFlightSignatures.entrySet());
+        for (Map.Entry<CompletableFuture<SignatureResult>, Trace> inFlightSignature : remaining) {
+            inFlightSignature.getKey().completeExceptionally(new RestClientException(
+                "The AIS client was closed while signing - " + inFlightSignature.getValue().getId()));
+        }
         if (restClient != null) {
             restClient.close();
         }
@@ -133,6 +229,7 @@ public class AisClientImpl implements AisClient {
     @SuppressWarnings("unused")
     public void setRestClient(RestClient restClient) {
         this.restClient = restClient;
+        updateAutomaticRetries();
     }
 
     @SuppressWarnings("unused")
@@ -143,6 +240,7 @@ public class AisClientImpl implements AisClient {
     @SuppressWarnings("unused")
     public void setConfiguration(AisClientConfiguration configuration) {
         this.configuration = configuration;
+        updateAutomaticRetries();
     }
 
     // ----------------------------------------------------------------------------------------------------
@@ -156,54 +254,439 @@ public class AisClientImpl implements AisClient {
                                            boolean withPolling,
                                            AdditionalProfile... additionalProfiles) {
         Trace trace = new Trace(userData.getTransactionId());
+        validateSigningInput(signatureMode, userData, documentHandles, trace);
+        if (shouldSignInBatches(signatureMode, documentHandles)) {
+            try {
+                return performSigningInBatchesAsync(signatureMode, signatureType, userData, documentHandles, withStepUp, withCertificateRequest,
+                                                    withPolling, additionalProfiles, trace, getAsyncExecutor()).join();
+            } catch (CompletionException e) {
+                Throwable cause = unwrapCompletionException(e);
+                if (cause instanceof RestClientException) {
+                    throw (RestClientException) cause;
+                }
+                throw new RestClientException("Failed to sign the documents in batches - " + trace.getId(), cause);
+            }
+        }
+        for (int attempt = 1; ; attempt++) {
+            // prepare documents
+            List<PdfDocument> documentsToSign = prepareMultipleDocumentsForSigning(documentHandles, signatureMode, signatureType, userData, trace);
+            // start the signature
+            AISSignResponse signResponse;
+            try {
+                signResponse = requestSignature(documentsToSign, signatureMode, signatureType, userData, withStepUp, withCertificateRequest,
+                                                additionalProfiles, trace);
+                if (withPolling) {
+                    if (!checkThatResponseIsPending(signResponse)) {
+                        return selectASignatureResultForResponse(signResponse, trace);
+                    }
+                    // poll for signature status
+                    signResponse = pollUntilSignatureIsComplete(signResponse, userData, trace);
+                }
+                return completeSigning(documentsToSign, signResponse, signatureMode, userData, trace);
+            } catch (SignatureSizeExceededException e) {
+                if (!canPrepareDocumentsAgain(signatureMode, documentHandles, attempt)) {
+                    throw e;
+                }
+                logClient.warn("Preparing the documents again, with more space for the signature(s). {}", e.getMessage());
+            } finally {
+                documentsToSign.forEach(PdfDocument::close);
+            }
+        }
+    }
+
+    private CompletableFuture<SignatureResult> performSigningAsync(SignatureMode signatureMode,
+                                                                   SignatureType signatureType,
+                                                                   UserData userData,
+                                                                   List<PdfHandle> documentHandles,
+                                                                   boolean withStepUp,
+                                                                   boolean withCertificateRequest,
+                                                                   boolean withPolling,
+                                                                   AdditionalProfile... additionalProfiles) {
+        ScheduledExecutorService executor = getAsyncExecutor();
+        Trace trace = new Trace(userData.getTransactionId());
+        CompletableFuture<SignatureResult> result = new CompletableFuture<>();
+        inFlightSignatures.put(result, trace);
+        CompletableFuture.runAsync(() -> validateSigningInput(signatureMode, userData, documentHandles, trace), executor)
+            .thenCompose(ignored -> {
+                if (shouldSignInBatches(signatureMode, documentHandles)) {
+                    return performSigningInBatchesAsync(signatureMode, signatureType, userData, documentHandles, withStepUp,
+                                                        withCertificateRequest, withPolling, additionalProfiles, trace, executor);
+                }
+                return performSigningAttemptAsync(signatureMode, signatureType, userData, documentHandles, withStepUp,
+                                                  withCertificateRequest, withPolling, additionalProfiles, 1, trace, executor);
+            })
+            .whenComplete((signatureResult, error) -> {
+                inFlightSignatures.remove(result);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(signatureResult);
+                }
+            });
+        return result;
+    }
+
+    /**
+     * Large lists of documents are signed in several batches (see {@link DocumentBatchPlanner}). The on-demand signatures with step-up
+     * are never split, as the user would have to confirm each batch.
+     */
+    private boolean shouldSignInBatches(SignatureMode signatureMode, List<PdfHandle> documentHandles) {
+        return signatureMode != SignatureMode.ON_DEMAND_STEP_UP && createBatchPlanner().needsSplitting(documentHandles);
+    }
+
+    private DocumentBatchPlanner createBatchPlanner() {
+        return new DocumentBatchPlanner(configuration.getBatchMaxDocuments(), configuration.getBatchParallelBatches());
+    }
+
+    private CompletableFuture<SignatureResult> performSigningInBatchesAsync(SignatureMode signatureMode,
+                                                                            SignatureType signatureType,
+                                                                            UserData userData,
+                                                                            List<PdfHandle> documentHandles,
+                                                                            boolean withStepUp,
+                                                                            boolean withCertificateRequest,
+                                                                            boolean withPolling,
+                                                                            AdditionalProfile[] additionalProfiles,
+                                                                            Trace trace,
+                                                                            ScheduledExecutorService executor) {
+        DocumentBatchPlanner batchPlanner = createBatchPlanner();
+        List<List<PdfHandle>> batches = batchPlanner.plan(documentHandles);
+        logClient.info("Signing {} documents in {} batches - {}", documentHandles.size(), batches.size(), trace.getId());
+        return batchPlanner.execute(batches, batch -> performSigningAttemptAsync(signatureMode, signatureType, userData, batch, withStepUp,
+                                                                                 withCertificateRequest, withPolling, additionalProfiles,
+                                                                                 1, trace, executor), trace);
+    }
+
+    private CompletableFuture<SignatureResult> performSigningAttemptAsync(SignatureMode signatureMode,
+                                                                          SignatureType signatureType,
+                                                                          UserData userData,
+                                                                          List<PdfHandle> documentHandles,
+                                                                          boolean withStepUp,
+                                                                          boolean withCertificateRequest,
+                                                                          boolean withPolling,
+                                                                          AdditionalProfile[] additionalProfiles,
+                                                                          int attempt,
+                                                                          Trace trace,
+                                                                          ScheduledExecutorService executor) {
+        return CompletableFuture.supplyAsync(
+            () -> prepareMultipleDocumentsForSigning(documentHandles, signatureMode, signatureType, userData, trace), executor
+        ).thenCompose(documentsToSign -> {
+            CompletableFuture<SignatureResult> result = requestSignatureAsync(documentsToSign, signatureMode, signatureType, userData,
+                                                                              withStepUp, withCertificateRequest, additionalProfiles,
+                                                                              trace, executor)
+                .thenCompose(signResponse -> {
+                    if (withPolling) {
+                        if (!checkThatResponseIsPending(signResponse)) {
+                            return CompletableFuture.completedFuture(selectASignatureResultForResponse(signResponse, trace));
+                        }
+                        return pollUntilSignatureIsCompleteAsync(signResponse, userData, trace, executor)
+                            .thenApplyAsync(finalResponse -> completeSigning(documentsToSign, finalResponse, signatureMode, userData, trace),
+                                            executor);
+                    }
+                    return CompletableFuture.supplyAsync(() -> completeSigning(documentsToSign, signResponse, signatureMode, userData, trace),
+                                                         executor);
+                });
+            return result.whenComplete((signatureResult, error) -> documentsToSign.forEach(PdfDocument::close));
+        }).handle((signatureResult, error) -> {
+            Throwable cause = error == null ? null : unwrapCompletionException(error);
+            if (cause instanceof SignatureSizeExceededException && canPrepareDocumentsAgain(signatureMode, documentHandles, attempt)) {
+                logClient.warn("Preparing the documents again, with more space for the signature(s). {}", cause.getMessage());
+                return performSigningAttemptAsync(signatureMode, signatureType, userData, documentHandles, withStepUp, withCertificateRequest,
+                                                  withPolling, additionalProfiles, attempt + 1, trace, executor);
+            }
+            CompletableFuture<SignatureResult> outcome = new CompletableFuture<>();
+            if (error != null) {
+                outcome.completeExceptionally(error);
+            } else {
+                outcome.complete(signatureResult);
+            }
+            return outcome;
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * A signature that did not fit in its document can only be retried when the signature size is learned (so that the next preparation
+     * reserves more space), when no user interaction is involved (the step-up would ask the user to confirm again) and when all the
+     * documents can be read and written again.
+     */
+    private boolean canPrepareDocumentsAgain(SignatureMode signatureMode, List<PdfHandle> documentHandles, int attempt) {
+        if (attempt >= MAX_PREPARATION_ATTEMPTS || getSignatureSizeEstimator() == null || signatureMode == SignatureMode.ON_DEMAND_STEP_UP) {
+            return false;
+        }
+        return documentHandles.stream().allMatch(handle -> handle.getInputFromStream() == null &&
+                                                           handle.getInputFromChannel() == null &&
+                                                           handle.getOutputToStream() == null &&
+                                                           handle.getOutputToChannel() == null);
+    }
+
+    private void validateSigningInput(SignatureMode signatureMode, UserData userData, List<PdfHandle> documentHandles, Trace trace) {
         userData.validateYourself(signatureMode, trace);
         documentHandles.forEach(handle -> handle.validateYourself(trace));
-        // prepare documents
-        List<PdfDocument> documentsToSign = prepareMultipleDocumentsForSigning(documentHandles, signatureMode, signatureType, userData, trace);
-        // start the signature
-        AISSignResponse signResponse;
+    }
+
+    private AISSignResponse requestSignature(List<PdfDocument> documentsToSign,
+                                             SignatureMode signatureMode,
+                                             SignatureType signatureType,
+                                             UserData userData,
+                                             boolean withStepUp,
+                                             boolean withCertificateRequest,
+                                             AdditionalProfile[] additionalProfiles,
+                                             Trace trace) {
         try {
-            try {
-                List<AdditionalProfile> preparedAdditionalProfiles = prepareAdditionalProfiles(documentsToSign, additionalProfiles);
-                AISSignRequest signRequest = ModelHelper.buildAisSignRequest(documentsToSign, signatureMode, signatureType, userData,
-                                                                             preparedAdditionalProfiles, withStepUp, withCertificateRequest);
-                signResponse = restClient.requestSignature(signRequest, trace);
-            } catch (Exception e) {
-                throw new RestClientException("Failed to communicate with the AIS service and obtain the signature(s) - " + trace.getId(), e);
+            List<AdditionalProfile> preparedAdditionalProfiles = prepareAdditionalProfiles(documentsToSign, additionalProfiles);
+            AISSignRequest signRequest = ModelHelper.buildAisSignRequest(documentsToSign, signatureMode, signatureType, userData,
+                                                                         preparedAdditionalProfiles, withStepUp, withCertificateRequest);
+            RetryPolicy retryPolicy = signatureMode == SignatureMode.TIMESTAMP ? getRetryPolicy() : null;
+            if (retryPolicy != null) {
+                return retryPolicy.execute("SignRequest", () -> restClient.requestSignature(signRequest, trace), trace);
             }
-            if (withPolling) {
-                if (!checkThatResponseIsPending(signResponse)) {
-                    return selectASignatureResultForResponse(signResponse, trace);
-                }
-                // poll for signature status
-                signResponse = pollUntilSignatureIsComplete(signResponse, userData, trace);
+            return restClient.requestSignature(signRequest, trace);
+        } catch (Exception e) {
+            throw new RestClientException("Failed to communicate with the AIS service and obtain the signature(s) - " + trace.getId(), e);
+        }
+    }
+
+    /**
+     * Sends the sign request without blocking when the REST client supports it. Otherwise, the blocking call is run on the given executor.
+     * The dependent stages are moved back on the executor, so that no client code runs on the HTTP client's I/O threads.
+     */
+    private CompletableFuture<AISSignResponse> requestSignatureAsync(List<PdfDocument> documentsToSign,
+                                                                     SignatureMode signatureMode,
+                                                                     SignatureType signatureType,
+                                                                     UserData userData,
+                                                                     boolean withStepUp,
+                                                                     boolean withCertificateRequest,
+                                                                     AdditionalProfile[] additionalProfiles,
+                                                                     Trace trace,
+                                                                     ScheduledExecutorService executor) {
+        if (!(restClient instanceof AsyncRestClient)) {
+            return CompletableFuture.supplyAsync(() -> requestSignature(documentsToSign, signatureMode, signatureType, userData, withStepUp,
+                                                                        withCertificateRequest, additionalProfiles, trace), executor);
+        }
+        CompletableFuture<AISSignResponse> response;
+        try {
+            List<AdditionalProfile> preparedAdditionalProfiles = prepareAdditionalProfiles(documentsToSign, additionalProfiles);
+            AISSignRequest signRequest = ModelHelper.buildAisSignRequest(documentsToSign, signatureMode, signatureType, userData,
+                                                                         preparedAdditionalProfiles, withStepUp, withCertificateRequest);
+            AsyncRestClient asyncRestClient = (AsyncRestClient) restClient;
+            RetryPolicy retryPolicy = signatureMode == SignatureMode.TIMESTAMP ? getRetryPolicy() : null;
+            if (retryPolicy != null) {
+                response = retryPolicy.executeAsync("SignRequest", () -> asyncRestClient.requestSignatureAsync(signRequest, trace),
+                                                    executor, trace);
+            } else {
+                response = asyncRestClient.requestSignatureAsync(signRequest, trace);
             }
-            if (!checkThatResponseIsSuccessful(signResponse)) {
-                return selectASignatureResultForResponse(signResponse, trace);
+        } catch (Exception e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        return response.handleAsync((signResponse, error) -> {
+            if (error != null) {
+                throw new RestClientException("Failed to communicate with the AIS service and obtain the signature(s) - " + trace.getId(),
+                                              unwrapCompletionException(error));
             }
-            finishDocumentsSigning(documentsToSign, signResponse, signatureMode, trace);
-            return SignatureResult.SUCCESS;
-        } finally {
-            documentsToSign.forEach(PdfDocument::close);
+            return signResponse;
+        }, executor);
+    }
+
+    private SignatureResult completeSigning(List<PdfDocument> documentsToSign, AISSignResponse signResponse,
+                                            SignatureMode signatureMode, UserData userData, Trace trace) {
+        if (!checkThatResponseIsSuccessful(signResponse)) {
+            return selectASignatureResultForResponse(signResponse, trace);
         }
+        finishDocumentsSigning(documentsToSign, signResponse, signatureMode, userData, trace);
+        return SignatureResult.SUCCESS;
     }
 
+    private synchronized ScheduledExecutorService getAsyncExecutor() {
+        if (configuration.getAsyncExecutor() != null) {
+            return configuration.getAsyncExecutor();
+        }
+        if (ownAsyncExecutor == null) {
+            ownAsyncExecutor = Executors.newScheduledThreadPool(configuration.getAsyncThreadPoolSize(),
+                                                                new NamedThreadFactory("ais-client-async"));
+        }
+        return ownAsyncExecutor;
+    }
+
+    private synchronized PendingSignatureScheduler getPendingSignatureScheduler() {
+        if (configuration.getPendingSignatureScheduler() != null) {
+            return configuration.getPendingSignatureScheduler();
+        }
+        if (ownPendingSignatureScheduler == null) {
+            ownPendingSignatureScheduler = new PendingSignatureScheduler(configuration);
+        }
+        return ownPendingSignatureScheduler;
+    }
+
+    /**
+     * @return the retry policy for the requests that can safely be repeated, or null if retries are disabled
+     */
+    private synchronized RetryPolicy getRetryPolicy() {
+        if (configuration.getRetryPolicy() != null) {
+            return configuration.getRetryPolicy();
+        }
+        if (configuration.getRetryMaxAttempts() < 2) {
+            return null;
+        }
+        if (ownRetryPolicy == null) {
+            ownRetryPolicy = new RetryPolicy(configuration);
+        }
+        return ownRetryPolicy;
+    }
+
+    /**
+     * Leaves the automatic retries of the HTTP client (one retry for 429 and 503 responses) on when this client has no retry
+     * policy, and turns them off when it has one, so that the requests are not retried outside of the retry budget. The Sign
+     * requests that the retry policy does not cover (static and on-demand signatures) are then sent only once.
+     */
+    private void updateAutomaticRetries() {
+        if (restClient != null && configuration != null) {
+            restClient.setAutomaticRetries(configuration.getRetryPolicy() == null && configuration.getRetryMaxAttempts() < 2);
+        }
+    }
+
+    private synchronized ExecutorService getDocumentProcessingExecutor() {
+        if (configuration.getDocumentProcessingExecutor() != null) {
+            return configuration.getDocumentProcessingExecutor();
+        }
+        if (configuration.getDocumentProcessingThreads() < 2) {
+            return null;
+        }
+        if (ownDocumentProcessingExecutor == null) {
+            ownDocumentProcessingExecutor = Executors.newFixedThreadPool(configuration.getDocumentProcessingThreads(),
+                                                                         new NamedThreadFactory("ais-client-documents"));
+        }
+        return ownDocumentProcessingExecutor;
+    }
+
+    private synchronized SignatureSizeEstimator getSignatureSizeEstimator() {
+        if (!configuration.isSignatureSizeAdaptive()) {
+            return null;
+        }
+        if (signatureSizeEstimator == null) {
+            signatureSizeEstimator = new SignatureSizeEstimator(configuration.getSignatureSizeMarginPercent(),
+                                                                configuration.getSignatureSizeEstimatesFile());
+        }
+        return signatureSizeEstimator;
+    }
+
+    private synchronized VisualSignatureTemplateCache getVisualSignatureTemplateCache() {
+        if (configuration.getVisualSignatureTemplateCacheSize() < 1) {
+            return null;
+        }
+        if (visualSignatureTemplateCache == null) {
+            visualSignatureTemplateCache = new VisualSignatureTemplateCache(configuration.getVisualSignatureTemplateCacheSize());
+        }
+        return visualSignatureTemplateCache;
+    }
+
+    /**
+     * Prepares all the documents for signing, in parallel when a document processing executor is available. The returned list keeps the
+     * order of the given handles (and so the order of the document hashes in the sign request). If any of the documents fails, all the
+     * documents that were already prepared are closed before the error is thrown.
+     */
     @SuppressWarnings("SameParameterValue")
     private List<PdfDocument> prepareMultipleDocumentsForSigning(List<PdfHandle> documentHandles,
                                                                  SignatureMode signatureMode,
                                                                  SignatureType signatureType,
                                                                  UserData userData,
                                                                  Trace trace) {
-        return documentHandles
+        ExecutorService executor = getDocumentProcessingExecutor();
+        if (executor == null || documentHandles.size() < 2) {
+            List<PdfDocument> documents = new ArrayList<>();
+            try {
+                for (PdfHandle handle : documentHandles) {
+                    documents.add(prepareOneDocumentForSigning(handle, signatureMode, signatureType, userData, trace));
+                }
+            } catch (RuntimeException e) {
+                documents.forEach(PdfDocument::close);
+                throw e;
+            }
+            return documents;
+        }
+
+        List<CompletableFuture<PdfDocument>> futureDocuments = documentHandles
                 .stream()
-                .map(handle -> {
-                    logClient.info("Preparing {} signing for document: {} - {}",
-                            signatureMode.getFriendlyName(),
-                            handle.getInputFromFile(),
-                            trace.getId());
-                    return DocumentUtils.prepareOneDocumentForSigning(handle, signatureMode, signatureType, userData, trace);
-                })
+                .map(handle -> CompletableFuture.supplyAsync(
+                    () -> prepareOneDocumentForSigning(handle, signatureMode, signatureType, userData, trace), executor))
                 .collect(Collectors.toList());
+        try {
+            CompletableFuture.allOf(futureDocuments.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            futureDocuments.stream()
+                .filter(futureDocument -> !futureDocument.isCompletedExceptionally())
+                .forEach(futureDocument -> futureDocument.join().close());
+            Throwable cause = unwrapCompletionException(e);
+            if (cause instanceof RestClientException) {
+                throw (RestClientException) cause;
+            }
+            throw new RestClientException("Failed to prepare the documents for " + signatureMode.getFriendlyName() + " signing - " +
+                                          trace.getId(), cause);
+        }
+        return futureDocuments.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    private PdfDocument prepareOneDocumentForSigning(PdfHandle handle,
+                                                     SignatureMode signatureMode,
+                                                     SignatureType signatureType,
+                                                     UserData userData,
+                                                     Trace trace) {
+        logClient.info("Preparing {} signing for document: {} - {}",
+                       signatureMode.getFriendlyName(),
+                       handle.getInputName(),
+                       trace.getId());
+        SignatureSizeEstimator signatureSizeEstimator = getSignatureSizeEstimator();
+        int estimatedSignatureSize = signatureSizeEstimator == null
+                                     ? signatureType.getEstimatedSignatureSizeInBytes()
+                                     : signatureSizeEstimator.estimateSignatureSize(signatureMode, signatureType, userData.getClaimedIdentityName());
+        return DocumentUtils.prepareOneDocumentForSigning(handle, signatureMode, signatureType, userData, estimatedSignatureSize,
+                                                          createDocumentStaging(handle, trace), createMemoryUsageSetting(),
+                                                          getVisualSignatureTemplateCache(), trace);
+    }
+
+    private MemoryUsageSetting createMemoryUsageSetting() {
+        long maxStorageBytes = configuration.getPdfMaxStorageInMB() > 0 ? configuration.getPdfMaxStorageInMB() * 1024L * 1024L : -1;
+        MemoryUsageSetting memoryUsageSetting;
+        switch (configuration.getPdfMemoryUsage()) {
+            case TEMP_FILE:
+                memoryUsageSetting = MemoryUsageSetting.setupTempFileOnly(maxStorageBytes);
+                break;
+            case MIXED:
+                memoryUsageSetting = MemoryUsageSetting.setupMixed(configuration.getPdfMaxMainMemoryInMB() * 1024L * 1024L, maxStorageBytes);
+                break;
+            case MEMORY:
+            default:
+                return MemoryUsageSetting.setupMainMemoryOnly();
+        }
+        if (configuration.getPdfTempDirectory() != null) {
+            memoryUsageSetting.setTempDir(configuration.getPdfTempDirectory());
+        }
+        return memoryUsageSetting;
+    }
+
+    private DocumentStaging createDocumentStaging(PdfHandle handle, Trace trace) {
+        boolean useTempFile;
+        switch (configuration.getDocumentStagingMode()) {
+            case TEMP_FILE:
+                useTempFile = true;
+                break;
+            case AUTO:
+                long thresholdInBytes = configuration.getDocumentStagingFileThresholdInMB() * 1024L * 1024L;
+                useTempFile = handle.getInputSize() >= thresholdInBytes;
+                break;
+            case MEMORY:
+            default:
+                useTempFile = false;
+        }
+        if (!useTempFile) {
+            return new InMemoryDocumentStaging();
+        }
+        try {
+            return new TempFileDocumentStaging(configuration.getDocumentStagingDirectory(), trace);
+        } catch (IOException e) {
+            throw new RestClientException("Failed to create the temporary staging file for the document [" +
+                                          handle.getInputName() + "] - " + trace.getId(), e);
+        }
     }
 
     private List<AdditionalProfile> prepareAdditionalProfiles(List<PdfDocument> documentsToSign, AdditionalProfile... extraProfiles) {
@@ -300,31 +783,104 @@ public class AisClientImpl implements AisClient {
     }
 
     private AISSignResponse pollUntilSignatureIsComplete(AISSignResponse signResponse, UserData userData, Trace trace) {
-        AISSignResponse localResponse = signResponse;
         try {
-            if (checkForConsentUrlInTheResponse(localResponse, userData, trace)) {
-                TimeUnit.SECONDS.sleep(configuration.getSignaturePollingIntervalInSeconds());
-            }
-            for (int round = 0; round < configuration.getSignaturePollingRounds(); round++) {
-                logProtocol.debug("Polling for signature status, round {}/{} - {}",
-                                  round + 1, configuration.getSignaturePollingRounds(), trace.getId());
-                AISPendingRequest pendingRequest = ModelHelper.buildAisPendingRequest(ResponseHelper.getResponseId(localResponse), userData);
-                localResponse = restClient.pollForSignatureStatus(pendingRequest, trace);
-                checkForConsentUrlInTheResponse(localResponse, userData, trace);
-                if (ResponseHelper.responseIsAsyncPending(localResponse)) {
-                    TimeUnit.SECONDS.sleep(configuration.getSignaturePollingIntervalInSeconds());
-                } else {
-                    break;
-                }
+            return pollUntilSignatureIsCompleteAsync(signResponse, userData, trace, null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrupted while polling AIS for the status of the signature(s) - " + trace.getId(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RestClientException) {
+                throw (RestClientException) e.getCause();
             }
+            throw new RestClientException("Failed to poll AIS for the status of the signature(s) - " + trace.getId(), e.getCause());
+        }
+    }
+
+    /**
+     * Hands the pending signature over to the {@link PendingSignatureScheduler}, so that no thread is blocked between two polling
+     * rounds. When an executor is given, the consent URL callbacks of the asynchronous polls are run on it.
+     */
+    private CompletableFuture<AISSignResponse> pollUntilSignatureIsCompleteAsync(AISSignResponse signResponse, UserData userData,
+                                                                                 Trace trace, ScheduledExecutorService executor) {
+        CompletableFuture<AISSignResponse> result;
+        try {
+            boolean consentUrlReceived = checkForConsentUrlInTheResponse(signResponse, userData, trace);
+            result = getPendingSignatureScheduler().submit(
+                signResponse, consentUrlReceived,
+                (previousResponse, round) -> pollForSignatureStatusAsync(previousResponse, round, userData, trace, executor), trace);
         } catch (Exception e) {
-            throw new RestClientException("Failed to poll AIS for the status of the signature(s) - " + trace.getId(), e);
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
         }
-        return localResponse;
+        return result.handle((finalResponse, error) -> {
+            if (error != null) {
+                throw new RestClientException("Failed to poll AIS for the status of the signature(s) - " + trace.getId(),
+                                              unwrapCompletionException(error));
+            }
+            return finalResponse;
+        });
     }
 
+    /**
+     * Sends one Pending request. With the blocking REST client (or without an executor), the request runs on the thread of the
+     * {@link PendingSignatureScheduler} and its retries are scheduled on the scheduler's executor, so that the few polling threads
+     * never sleep between two attempts.
+     */
+    private CompletableFuture<AISSignResponse> pollForSignatureStatusAsync(AISSignResponse previousResponse, int round, UserData userData,
+                                                                           Trace trace, ScheduledExecutorService executor) {
+        logProtocol.debug("Polling for signature status, round {}/{} - {}",
+                          round + 1, configuration.getSignaturePollingRounds(), trace.getId());
+        AISPendingRequest pendingRequest = ModelHelper.buildAisPendingRequest(ResponseHelper.getResponseId(previousResponse), userData);
+        boolean nonBlocking = executor != null && restClient instanceof AsyncRestClient;
+        Supplier<CompletableFuture<AISSignResponse>> poll;
+        if (nonBlocking) {
+            AsyncRestClient asyncRestClient = (AsyncRestClient) restClient;
+            poll = () -> asyncRestClient.pollForSignatureStatusAsync(pendingRequest, trace);
+        } else {
+            poll = () -> CompletableFuture.completedFuture(restClient.pollForSignatureStatus(pendingRequest, trace));
+        }
+        RetryPolicy retryPolicy = getRetryPolicy();
+        CompletableFuture<AISSignResponse> pollResult;
+        if (retryPolicy != null) {
+            ScheduledExecutorService retryScheduler = nonBlocking ? executor : getPendingSignatureScheduler().getExecutor();
+            pollResult = retryPolicy.executeAsync("PendingRequest", poll, retryScheduler, trace);
+        } else {
+            pollResult = poll.get();
+        }
+        if (!nonBlocking) {
+            return pollResult.thenApply(response -> {
+                checkForConsentUrlInTheResponse(response, userData, trace);
+                return response;
+            });
+        }
+        return pollResult
+            .thenApplyAsync(response -> {
+                checkForConsentUrlInTheResponse(response, userData, trace);
+                return response;
+            }, executor);
+    }
+
+    private static Throwable unwrapCompletionException(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Embeds the signatures (and the CRL/OCSP validation data) in all the documents of a response. When a document processing executor
+     * is available the documents are finalized in parallel. A failure of one document does not stop the finalization of the others;
+     * once all the documents have been processed, the failures (if any) are reported together, in a single {@link RestClientException}
+     * that names the failed documents and carries each individual failure as a suppressed exception.
+     */
     private void finishDocumentsSigning(List<PdfDocument> documentsToSign, AISSignResponse signResponse,
-                                        SignatureMode signatureMode, Trace trace) {
+                                        SignatureMode signatureMode, UserData userData, Trace trace) {
+        List<byte[]> signatureContents = new ArrayList<>();
+        for (PdfDocument document : documentsToSign) {
+            signatureContents.add(extractSignatureContent(document, signResponse, documentsToSign.size() == 1, signatureMode, trace));
+        }
+        checkThatSignaturesFit(documentsToSign, signatureContents, signatureMode, userData, trace);
+
         List<String> base64EncodedCrls = ResponseHelper.getResponseScCrlList(signResponse);
         List<byte[]> crlEntries = null;
         if (base64EncodedCrls.size() > 0) {
@@ -336,36 +892,122 @@ public class AisClientImpl implements AisClient {
             ocspEntries = base64EncodedOcsps.stream().map(ocsp -> Base64.getDecoder().decode(ocsp)).collect(Collectors.toList());
         }
 
-        if (signatureMode == SignatureMode.TIMESTAMP) {
-            if (documentsToSign.size() == 1) {
-                PdfDocument document = documentsToSign.get(0);
-                logClient.info("Finalizing the timestamping for document: {} - {}", document.getName(), trace.getId());
-                String base64TimestampToken = signResponse.getSignResponse().getSignatureObject().getTimestamp().getRFC3161TimeStampToken();
-                document.finishSignature(Base64.getDecoder().decode(base64TimestampToken), crlEntries, ocspEntries);
-            } else {
-                for (PdfDocument document : documentsToSign) {
-                    logClient.info("Finalizing the timestamping for document: {} - {}", document.getName(), trace.getId());
-                    ScExtendedSignatureObject signatureObject = ResponseHelper.getSignatureObjectByDocumentId(document.getId(), signResponse);
-                    document.finishSignature(Base64.getDecoder().decode(signatureObject.getTimestamp().getRFC3161TimeStampToken()),
-                                             crlEntries, ocspEntries);
+        if (documentsToSign.size() == 1) {
+            finishOneDocumentSigning(documentsToSign.get(0), signatureContents.get(0), signatureMode, crlEntries, ocspEntries, trace);
+            return;
+        }
+
+        List<byte[]> finalCrlEntries = crlEntries;
+        List<byte[]> finalOcspEntries = ocspEntries;
+        ExecutorService executor = getDocumentProcessingExecutor();
+        List<CompletableFuture<Void>> futureResults = IntStream
+            .range(0, documentsToSign.size())
+            .mapToObj(index -> {
+                Runnable task = () -> finishOneDocumentSigning(documentsToSign.get(index), signatureContents.get(index), signatureMode,
+                                                               finalCrlEntries, finalOcspEntries, trace);
+                if (executor == null) {
+                    CompletableFuture<Void> result = new CompletableFuture<>();
+                    try {
+                        task.run();
+                        result.complete(null);
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                    return result;
                 }
+                return CompletableFuture.runAsync(task, executor);
+            })
+            .collect(Collectors.toList());
+
+        List<String> failedDocumentNames = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int index = 0; index < documentsToSign.size(); index++) {
+            try {
+                futureResults.get(index).join();
+            } catch (CompletionException e) {
+                PdfDocument document = documentsToSign.get(index);
+                Throwable cause = unwrapCompletionException(e);
+                logClient.error("Failed to finalize the signature for document: {} - {}", document.getName(), trace.getId(), cause);
+                failedDocumentNames.add(document.getName());
+                failures.add(cause);
             }
+        }
+        if (!failures.isEmpty()) {
+            RestClientException exception = new RestClientException(
+                "Failed to embed the signature(s) in " + failures.size() + " of " + documentsToSign.size() +
+                " documents: " + failedDocumentNames + " - " + trace.getId(), failures.get(0));
+            failures.stream().skip(1).forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
+
+    private void finishOneDocumentSigning(PdfDocument document, byte[] signatureContent, SignatureMode signatureMode,
+                                          List<byte[]> crlEntries, List<byte[]> ocspEntries, Trace trace) {
+        if (signatureMode == SignatureMode.TIMESTAMP) {
+            logClient.info("Finalizing the timestamping for document: {} - {}", document.getName(), trace.getId());
         } else {
-            if (documentsToSign.size() == 1) {
-                PdfDocument document = documentsToSign.get(0);
-                logClient.info("Finalizing the signature for document: {} - {}", document.getName(), trace.getId());
-                document.finishSignature(
-                    Base64.getDecoder().decode(signResponse.getSignResponse().getSignatureObject().getBase64Signature().get$()),
-                    crlEntries, ocspEntries);
-            } else {
-                for (PdfDocument document : documentsToSign) {
-                    logClient.info("Finalizing the signature for document: {} - {}", document.getName(), trace.getId());
-                    ScExtendedSignatureObject signatureObject = ResponseHelper.getSignatureObjectByDocumentId(document.getId(), signResponse);
-                    document.finishSignature(Base64.getDecoder().decode(signatureObject.getBase64Signature().get$()),
-                                             crlEntries, ocspEntries);
-                }
+            logClient.info("Finalizing the signature for document: {} - {}", document.getName(), trace.getId());
+        }
+        document.finishSignature(signatureContent, crlEntries, ocspEntries);
+    }
+
+    private byte[] extractSignatureContent(PdfDocument document, AISSignResponse signResponse, boolean singleDocument,
+                                           SignatureMode signatureMode, Trace trace) {
+        try {
+            ScExtendedSignatureObject signatureObject = singleDocument ? null
+                                                                       : ResponseHelper.getSignatureObjectByDocumentId(document.getId(), signResponse);
+            if (signatureMode == SignatureMode.TIMESTAMP) {
+                String base64TimestampToken = singleDocument
+                                              ? signResponse.getSignResponse().getSignatureObject().getTimestamp().getRFC3161TimeStampToken()
+                                              : signatureObject.getTimestamp().getRFC3161TimeStampToken();
+                return Base64.getDecoder().decode(base64TimestampToken);
             }
+            String base64Signature = singleDocument
+                                     ? signResponse.getSignResponse().getSignatureObject().getBase64Signature().get$()
+                                     : signatureObject.getBase64Signature().get$();
+            return Base64.getDecoder().decode(base64Signature);
+        } catch (Exception e) {
+            throw new RestClientException("Failed to extract the signature of the document [" + document.getName() +
+                                          "] from the AIS response - " + trace.getId(), e);
         }
     }
 
+    /**
+     * Records the sizes of the received signatures (when the signature size is learned) and checks that each of them fits in the space
+     * that was reserved for it in its document.
+     */
+    private void checkThatSignaturesFit(List<PdfDocument> documentsToSign, List<byte[]> signatureContents, SignatureMode signatureMode,
+                                        UserData userData, Trace trace) {
+        SignatureSizeEstimator signatureSizeEstimator = getSignatureSizeEstimator();
+        List<String> oversizedSignatures = new ArrayList<>();
+        for (int index = 0; index < documentsToSign.size(); index++) {
+            PdfDocument document = documentsToSign.get(index);
+            int signatureSize = signatureContents.get(index).length;
+            if (signatureSizeEstimator != null) {
+                signatureSizeEstimator.recordSignatureSize(signatureMode, userData.getClaimedIdentityName(), signatureSize, trace);
+            }
+            if (signatureSize > document.getSignatureCapacityInBytes()) {
+                oversizedSignatures.add(document.getName() + " (" + signatureSize + " bytes received, " +
+                                        document.getSignatureCapacityInBytes() + " bytes reserved)");
+            }
+        }
+        if (!oversizedSignatures.isEmpty()) {
+            throw new SignatureSizeExceededException("The signature(s) received from AIS do not fit in the space reserved in the " +
+                                                     "documents: " + oversizedSignatures + " - " + trace.getId());
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Signals that a signature received from AIS is larger than the space reserved for it in its document.
+     */
+    private static class SignatureSizeExceededException extends RestClientException {
+
+        private SignatureSizeExceededException(String message) {
+            super(message);
+        }
+
+    }
+
 }
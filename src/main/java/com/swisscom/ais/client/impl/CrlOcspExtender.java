@@ -39,6 +39,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateFactory;
@@ -74,11 +75,11 @@ public class CrlOcspExtender {
 
     private final Trace trace;
     private final PDDocument pdDocument;
-    private final byte[] documentBytes;
+    private final DocumentStaging documentStaging;
 
-    public CrlOcspExtender(PDDocument pdDocument, byte[] documentBytes, Trace trace) {
+    public CrlOcspExtender(PDDocument pdDocument, DocumentStaging documentStaging, Trace trace) {
         this.pdDocument = pdDocument;
-        this.documentBytes = documentBytes;
+        this.documentStaging = documentStaging;
         this.trace = trace;
     }
 
@@ -90,8 +91,8 @@ public class CrlOcspExtender {
 
             addExtensions(pdDocumentCatalog);
 
-            List<byte[]> encodedCrlEntries = getCrlEncodedForm(crlEntries);
-            List<byte[]> encodedOcspEntries = getOcspEncodedForm(ocspEntries);
+            List<byte[]> encodedCrlEntries = getCrlEncodedForm(crlEntries, trace);
+            List<byte[]> encodedOcspEntries = getOcspEncodedForm(ocspEntries, trace);
 
             Map<COSName, ValidationData> validationMap = new HashMap<>();
 
@@ -202,7 +203,7 @@ public class CrlOcspExtender {
         catalog.setVersion("1.7");
     }
 
-    private List<byte[]> getCrlEncodedForm(List<byte[]> crlEntries) {
+    static List<byte[]> getCrlEncodedForm(List<byte[]> crlEntries, Trace trace) {
         if (crlEntries == null) {
             return Collections.emptyList();
         }
@@ -225,7 +226,7 @@ public class CrlOcspExtender {
         }).collect(Collectors.toList());
     }
 
-    private List<byte[]> getOcspEncodedForm(List<byte[]> ocspEntries) {
+    static List<byte[]> getOcspEncodedForm(List<byte[]> ocspEntries, Trace trace) {
         if (ocspEntries == null) {
             return Collections.emptyList();
         }
@@ -294,7 +295,7 @@ public class CrlOcspExtender {
         return stream;
     }
 
-    private byte[] buildOCSPResponse(byte[] content) throws IOException {
+    static byte[] buildOCSPResponse(byte[] content) throws IOException {
         DEROctetString derOctet = new DEROctetString(content);
         ASN1EncodableVector v2 = new ASN1EncodableVector();
         v2.add(OCSPObjectIdentifiers.id_pkix_ocsp_basic);
@@ -308,8 +309,20 @@ public class CrlOcspExtender {
     }
 
     private String getSignatureHashKey(PDSignature signature) throws NoSuchAlgorithmException, IOException {
-        byte[] contentToConvert = signature.getContents(documentBytes);
-        if (SignatureType.TIMESTAMP.getUri().equals(signature.getSubFilter())) {
+        byte[] signatureContents;
+        try (InputStream documentIn = documentStaging.getInputStream()) {
+            signatureContents = signature.getContents(documentIn);
+        }
+        return getSignatureHashKey(signatureContents, signature.getSubFilter());
+    }
+
+    /**
+     * Computes the key of the VRI entry of a signature: the SHA-1 hash of its /Contents (for a document timestamp, of the
+     * re-encoded timestamp token, without the padding of the /Contents entry).
+     */
+    static String getSignatureHashKey(byte[] signatureContents, String subFilter) throws NoSuchAlgorithmException, IOException {
+        byte[] contentToConvert = signatureContents;
+        if (SignatureType.TIMESTAMP.getUri().equals(subFilter)) {
             ASN1InputStream din = new ASN1InputStream(new ByteArrayInputStream(contentToConvert));
             ASN1Primitive pkcs = din.readObject();
             contentToConvert = pkcs.getEncoded();
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import com.swisscom.ais.client.RestClientException;
+import com.swisscom.ais.client.model.PdfHandle;
+import com.swisscom.ais.client.model.SignatureResult;
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.Trace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Splits a large list of documents into batches of at most a configured number of documents, and signs these batches one after the
+ * other, or a bounded number of them at the same time. Each batch is prepared, signed, finalized and closed before the next batch
+ * is started, so that the memory used by the documents (and the size of each sign request) does not grow with the number of
+ * documents to sign.
+ * <p>
+ * The batches are signed in order. Once a batch fails, or does not finish with {@link SignatureResult#SUCCESS}, no further batch is
+ * started; the batches that are already running are allowed to finish.
+ */
+public class DocumentBatchPlanner {
+
+    private static final Logger logClient = LoggerFactory.getLogger(Loggers.CLIENT);
+
+    private final int maxDocumentsPerBatch;
+    private final int parallelBatches;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    public DocumentBatchPlanner(int maxDocumentsPerBatch, int parallelBatches) {
+        this.maxDocumentsPerBatch = maxDocumentsPerBatch;
+        this.parallelBatches = parallelBatches;
+    }
+
+    /**
+     * @return whether the given documents need to be split in several batches
+     */
+    public boolean needsSplitting(List<PdfHandle> documentHandles) {
+        return maxDocumentsPerBatch > 0 && documentHandles.size() > maxDocumentsPerBatch;
+    }
+
+    /**
+     * Splits the documents in batches of (almost) equal size, none of them larger than the configured maximum. The order of the
+     * documents is kept.
+     */
+    public List<List<PdfHandle>> plan(List<PdfHandle> documentHandles) {
+        List<List<PdfHandle>> batches = new ArrayList<>();
+        if (!needsSplitting(documentHandles)) {
+            batches.add(documentHandles);
+            return batches;
+        }
+        int batchCount = (documentHandles.size() + maxDocumentsPerBatch - 1) / maxDocumentsPerBatch;
+        int smallBatchSize = documentHandles.size() / batchCount;
+        int largeBatchCount = documentHandles.size() % batchCount;
+        int start = 0;
+        for (int batchIndex = 0; batchIndex < batchCount; batchIndex++) {
+            int end = start + smallBatchSize + (batchIndex < largeBatchCount ? 1 : 0);
+            batches.add(documentHandles.subList(start, end));
+            start = end;
+        }
+        return batches;
+    }
+
+    /**
+     * Signs the given batches, with at most the configured number of batches running at the same time.
+     *
+     * @param batches     the batches, as returned by {@link #plan(List)}
+     * @param batchSigner the code that signs one batch
+     * @param trace       the trace of the whole signature
+     * @return a future that is completed with {@link SignatureResult#SUCCESS} once all the batches are signed, or with the result of
+     * the first batch that did not succeed
+     */
+    public CompletableFuture<SignatureResult> execute(List<List<PdfHandle>> batches,
+                                                      Function<List<PdfHandle>, CompletableFuture<SignatureResult>> batchSigner,
+                                                      Trace trace) {
+        Queue<Integer> pendingBatches = new ConcurrentLinkedQueue<>();
+        for (int batchIndex = 0; batchIndex < batches.size(); batchIndex++) {
+            pendingBatches.add(batchIndex);
+        }
+        BatchExecution execution = new BatchExecution(batches, batchSigner, pendingBatches, trace);
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        for (int lane = 0; lane < Math.min(parallelBatches, batches.size()); lane++) {
+            lanes.add(execution.runNextBatch());
+        }
+        return CompletableFuture.allOf(lanes.toArray(new CompletableFuture<?>[0])).handle((ignored, error) -> execution.collectResult());
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static class BatchExecution {
+        private final List<List<PdfHandle>> batches;
+        private final Function<List<PdfHandle>, CompletableFuture<SignatureResult>> batchSigner;
+        private final Queue<Integer> pendingBatches;
+        private final Trace trace;
+        private final AtomicReferenceArray<SignatureResult> results;
+        private final AtomicReferenceArray<Throwable> failures;
+        private volatile boolean stopped;
+
+        private BatchExecution(List<List<PdfHandle>> batches, Function<List<PdfHandle>, CompletableFuture<SignatureResult>> batchSigner,
+                               Queue<Integer> pendingBatches, Trace trace) {
+            this.batches = batches;
+            this.batchSigner = batchSigner;
+            this.pendingBatches = pendingBatches;
+            this.trace = trace;
+            this.results = new AtomicReferenceArray<>(batches.size());
+            this.failures = new AtomicReferenceArray<>(batches.size());
+        }
+
+        private CompletableFuture<Void> runNextBatch() {
+            Integer batchIndex = stopped ? null : pendingBatches.poll();
+            if (batchIndex == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            logClient.info("Signing batch {} of {} ({} documents) - {}",
+                           batchIndex + 1, batches.size(), batches.get(batchIndex).size(), trace.getId());
+            CompletableFuture<SignatureResult> batchResult;
+            try {
+                batchResult = batchSigner.apply(batches.get(batchIndex));
+            } catch (Exception e) {
+                batchResult = new CompletableFuture<>();
+                batchResult.completeExceptionally(e);
+            }
+            return batchResult.handle((result, error) -> {
+                if (error != null) {
+                    failures.set(batchIndex, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                    stopped = true;
+                } else {
+                    results.set(batchIndex, result);
+                    if (result != SignatureResult.SUCCESS) {
+                        stopped = true;
+                    }
+                }
+                return null;
+            }).thenCompose(ignored -> runNextBatch());
+        }
+
+        private SignatureResult collectResult() {
+            for (int batchIndex = 0; batchIndex < batches.size(); batchIndex++) {
+                Throwable failure = failures.get(batchIndex);
+                if (failure != null) {
+                    throw new RestClientException("Failed to sign batch " + (batchIndex + 1) + " of " + batches.size() + " (" +
+                                                  countSignedDocuments() + " documents were signed) - " + trace.getId(), failure);
+                }
+                SignatureResult result = results.get(batchIndex);
+                if (result != null && result != SignatureResult.SUCCESS) {
+                    logClient.warn("Batch {} of {} finished with {} ({} documents were signed) - {}",
+                                   batchIndex + 1, batches.size(), result, countSignedDocuments(), trace.getId());
+                    return result;
+                }
+            }
+            return SignatureResult.SUCCESS;
+        }
+
+        private int countSignedDocuments() {
+            int signedDocuments = 0;
+            for (int batchIndex = 0; batchIndex < batches.size(); batchIndex++) {
+                if (results.get(batchIndex) == SignatureResult.SUCCESS) {
+                    signedDocuments += batches.get(batchIndex).size();
+                }
+            }
+            return signedDocuments;
+        }
+    }
+
+}
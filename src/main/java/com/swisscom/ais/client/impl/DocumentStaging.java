@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Holds the incrementally saved content of a document between the moment its hash is computed and the moment the signature
+ * returned by AIS is embedded in it. The document is written once (with an empty signature placeholder in its /Contents entry),
+ * then the signature is patched into the placeholder in place, without rewriting the rest of the document.
+ */
+public interface DocumentStaging extends Closeable {
+
+    /**
+     * @return the stream where the prepared document is written. This is called only once, and the caller closes the stream
+     * when the document is fully written
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Overwrites part of the staged document.
+     *
+     * @param position the offset (from the start of the document) where the bytes are written
+     * @param bytes    the bytes to write
+     */
+    void patch(long position, byte[] bytes) throws IOException;
+
+    /**
+     * @return the size of the staged document, in bytes
+     */
+    long getSize() throws IOException;
+
+    /**
+     * @return a new stream for reading the staged document from its start. The caller closes the stream
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Copies the whole staged document to the given stream, without first copying it into an intermediate buffer. The stream is
+     * not closed.
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * Parses the staged document.
+     *
+     * @param memoryUsageSetting how PDFBox buffers the content of the document
+     */
+    PDDocument loadDocument(MemoryUsageSetting memoryUsageSetting) throws IOException;
+
+}
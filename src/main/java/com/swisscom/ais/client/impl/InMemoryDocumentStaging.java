@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link DocumentStaging} that keeps the document on the heap. This is the fastest option for small documents.
+ */
+public class InMemoryDocumentStaging implements DocumentStaging {
+
+    private final PatchableByteArrayOutputStream buffer = new PatchableByteArrayOutputStream();
+
+    @Override
+    public OutputStream getOutputStream() {
+        return buffer;
+    }
+
+    @Override
+    public void patch(long position, byte[] bytes) {
+        buffer.patch((int) position, bytes);
+    }
+
+    @Override
+    public long getSize() {
+        return buffer.size();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return buffer.getInputStream();
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        buffer.writeTo(outputStream);
+    }
+
+    @Override
+    public PDDocument loadDocument(MemoryUsageSetting memoryUsageSetting) throws IOException {
+        return PDDocument.load(buffer.toByteArray(), "", null, null, memoryUsageSetting);
+    }
+
+    @Override
+    public void close() {
+        buffer.reset();
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static class PatchableByteArrayOutputStream extends ByteArrayOutputStream {
+
+        private synchronized void patch(int position, byte[] bytes) {
+            if (position < 0 || position + bytes.length > count) {
+                throw new IndexOutOfBoundsException("Cannot patch " + bytes.length + " bytes at position " + position +
+                                                    " in a document of " + count + " bytes");
+            }
+            System.arraycopy(bytes, 0, buf, position, bytes.length);
+        }
+
+        private synchronized InputStream getInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+    }
+
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.Trace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Fast path for embedding the CRL/OCSP validation data in a document that was just signed by this client. Instead of parsing the
+ * signed document again (see {@link CrlOcspExtender}), the DSS dictionary, its VRI entry and the CRL/OCSP streams are appended as a
+ * raw incremental update: the new objects, an updated copy of the document catalog, a cross-reference table and a trailer. The
+ * DSS has the same entries as the one that {@link CrlOcspExtender} creates in a document without a DSS: the /OCSPs and /CRLs
+ * arrays and a VRI entry for the signature with its /OCSP and /CRL arrays. Neither path embeds certificates, so there is no
+ * /Certs array.
+ * <p>
+ * The trailer and the catalog are checked with a small parser of PDF dictionaries (only their top-level keys are looked at) and
+ * anything unexpected (e.g. a catalog that is not a plain dictionary, an object header that does not match the cross-reference
+ * entry or a trailer whose /Root is not the catalog) makes the fast path bail out.
+ * <p>
+ * This works only when the document is not encrypted (the objects are written unencrypted), when the last update of the document
+ * (the one written for the signature) ends with a classic cross-reference table and when the catalog does not already have a DSS
+ * or an Extensions entry. In all other cases {@link #build} returns NULL and the caller must fall back to {@link CrlOcspExtender}.
+ */
+class IncrementalDssUpdate {
+
+    private static final Logger logPdfProcessing = LoggerFactory.getLogger(Loggers.PDF_PROCESSING);
+
+    private static final Pattern STARTXREF_PATTERN = Pattern.compile("startxref\\s+(\\d+)\\s+%%EOF\\s*$");
+    private static final Pattern XREF_SUBSECTION_PATTERN = Pattern.compile("(\\d+)\\s+(\\d+)\\s*\\r?\\n");
+    private static final Pattern OBJECT_HEADER_PATTERN = Pattern.compile("(\\d+)\\s+(\\d+)\\s+obj");
+    private static final Pattern REFERENCE_PATTERN = Pattern.compile("\\G(\\d+)\\s+(\\d+)\\s+R(?=[\\s()<>\\[\\]{}/%]|$)");
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("\\d+");
+
+    private static final int XREF_ENTRY_LENGTH = 20;
+    private static final int STARTXREF_WINDOW_SIZE = 1024;
+    private static final int MAX_XREF_SECTION_SIZE = 1024 * 1024;
+    private static final int MAX_CATALOG_OBJECT_SIZE = 64 * 1024;
+
+    private final DocumentStaging documentStaging;
+    private final int catalogObjectNumber;
+    private final int catalogGenerationNumber;
+    private final Trace trace;
+
+    /**
+     * @param documentStaging         the staged (and already signed) document
+     * @param catalogObjectNumber     the object number of the document catalog
+     * @param catalogGenerationNumber the generation number of the document catalog
+     * @param trace                   the trace of the signature
+     */
+    IncrementalDssUpdate(DocumentStaging documentStaging, int catalogObjectNumber, int catalogGenerationNumber, Trace trace) {
+        this.documentStaging = documentStaging;
+        this.catalogObjectNumber = catalogObjectNumber;
+        this.catalogGenerationNumber = catalogGenerationNumber;
+        this.trace = trace;
+    }
+
+    /**
+     * Builds the incremental update that adds the validation data to the document.
+     *
+     * @param signatureContents the content of the /Contents entry of the signature, including its padding
+     * @param subFilter         the /SubFilter of the signature
+     * @param crlEntries        the CRLs received from AIS (can be NULL)
+     * @param ocspEntries       the OCSP responses received from AIS (can be NULL)
+     * @return the bytes to append to the staged document, or NULL if this document is not supported by the fast path
+     */
+    byte[] build(byte[] signatureContents, String subFilter, List<byte[]> crlEntries, List<byte[]> ocspEntries)
+        throws IOException, NoSuchAlgorithmException {
+        long documentSize = documentStaging.getSize();
+        int documentEndSize = (int) Math.min(documentSize, STARTXREF_WINDOW_SIZE);
+        String documentEnd = read(documentSize - documentEndSize, documentEndSize);
+
+        int startXrefIndex = documentEnd.lastIndexOf("startxref");
+        Matcher startXrefMatcher = STARTXREF_PATTERN.matcher(documentEnd);
+        if (startXrefIndex < 0 || !startXrefMatcher.find(startXrefIndex)) {
+            return notSupported("no startxref found at the end of the document");
+        }
+        long lastXrefOffset = Long.parseLong(startXrefMatcher.group(1));
+        if (lastXrefOffset <= 0 || lastXrefOffset >= documentSize || documentSize - lastXrefOffset > MAX_XREF_SECTION_SIZE) {
+            return notSupported("the last cross-reference section is missing or too large");
+        }
+        String lastXrefSection = read(lastXrefOffset, (int) (documentSize - lastXrefOffset));
+        if (!lastXrefSection.startsWith("xref")) {
+            return notSupported("the last cross-reference section is not a table");
+        }
+        int sectionStartXrefIndex = lastXrefSection.lastIndexOf("startxref");
+        int trailerIndex = lastXrefSection.indexOf("trailer");
+        if (trailerIndex < 0 || trailerIndex > sectionStartXrefIndex) {
+            return notSupported("no trailer found for the last cross-reference table");
+        }
+        TextDictionary trailer = TextDictionary.parse(lastXrefSection, skipWhitespace(lastXrefSection, trailerIndex + "trailer".length()));
+        if (trailer == null || skipWhitespace(lastXrefSection, trailer.end) != sectionStartXrefIndex) {
+            return notSupported("the trailer is not a plain dictionary");
+        }
+        if (trailer.containsKey("Encrypt")) {
+            return notSupported("the document is encrypted");
+        }
+        if (trailer.containsKey("XRefStm") || !INTEGER_PATTERN.matcher(trailer.getValue("Size")).matches()) {
+            return notSupported("the trailer references a cross-reference stream or has no /Size");
+        }
+        if (!(catalogObjectNumber + " " + catalogGenerationNumber + " R").equals(trailer.getValue("Root").replaceAll("\\s+", " "))) {
+            return notSupported("the /Root of the trailer is not the expected catalog");
+        }
+
+        long catalogOffset = findObjectOffset(lastXrefSection.substring("xref".length(), trailerIndex), catalogObjectNumber);
+        if (catalogOffset < 0 || catalogOffset >= lastXrefOffset) {
+            return notSupported("the catalog is not listed in the last cross-reference table");
+        }
+        String catalogObject = read(catalogOffset, (int) Math.min(MAX_CATALOG_OBJECT_SIZE, lastXrefOffset - catalogOffset));
+        Matcher headerMatcher = OBJECT_HEADER_PATTERN.matcher(catalogObject);
+        if (!headerMatcher.lookingAt() || Integer.parseInt(headerMatcher.group(1)) != catalogObjectNumber
+            || Integer.parseInt(headerMatcher.group(2)) != catalogGenerationNumber) {
+            return notSupported("the cross-reference entry of the catalog does not point to its object");
+        }
+        TextDictionary catalog = TextDictionary.parse(catalogObject, skipWhitespace(catalogObject, headerMatcher.end()));
+        if (catalog == null || !catalogObject.startsWith("endobj", skipWhitespace(catalogObject, catalog.end))
+            || !"/Catalog".equals(catalog.getValue("Type"))) {
+            return notSupported("the catalog is not a plain dictionary");
+        }
+        if (catalog.containsKey("DSS") || catalog.containsKey("Extensions")) {
+            return notSupported("the catalog already has a DSS or an Extensions entry");
+        }
+
+        String vriKey = CrlOcspExtender.getSignatureHashKey(signatureContents, subFilter);
+        List<byte[]> encodedCrlEntries = CrlOcspExtender.getCrlEncodedForm(crlEntries, trace);
+        List<byte[]> encodedOcspEntries = new ArrayList<>();
+        for (byte[] ocsp : CrlOcspExtender.getOcspEncodedForm(ocspEntries, trace)) {
+            encodedOcspEntries.add(CrlOcspExtender.buildOCSPResponse(ocsp));
+        }
+
+        ByteArrayOutputStream update = new ByteArrayOutputStream();
+        char lastChar = documentEnd.charAt(documentEnd.length() - 1);
+        if (lastChar != '\n' && lastChar != '\r') {
+            write(update, "\n");
+        }
+        Map<Integer, Long> objectOffsets = new TreeMap<>();
+        int nextObjectNumber = Integer.parseInt(trailer.getValue("Size"));
+
+        String ocspReferences = writeStreams(update, documentSize, encodedOcspEntries, objectOffsets, nextObjectNumber);
+        nextObjectNumber += encodedOcspEntries.size();
+        String crlReferences = writeStreams(update, documentSize, encodedCrlEntries, objectOffsets, nextObjectNumber);
+        nextObjectNumber += encodedCrlEntries.size();
+
+        int dssObjectNumber = nextObjectNumber++;
+        StringBuilder dss = new StringBuilder();
+        dss.append("<<\n/VRI <<\n/").append(vriKey).append(" <<\n");
+        if (!encodedOcspEntries.isEmpty()) {
+            dss.append("/OCSP [").append(ocspReferences).append("]\n");
+        }
+        if (!encodedCrlEntries.isEmpty()) {
+            dss.append("/CRL [").append(crlReferences).append("]\n");
+        }
+        dss.append(">>\n>>\n");
+        if (!encodedOcspEntries.isEmpty()) {
+            dss.append("/OCSPs [").append(ocspReferences).append("]\n");
+        }
+        if (!encodedCrlEntries.isEmpty()) {
+            dss.append("/CRLs [").append(crlReferences).append("]\n");
+        }
+        dss.append(">>");
+        objectOffsets.put(dssObjectNumber, documentSize + update.size());
+        write(update, dssObjectNumber + " 0 obj\n" + dss + "\nendobj\n");
+
+        String updatedCatalog = "<<\n" + catalog.getContentWithout("Version")
+                                + "\n/Version /1.7"
+                                + "\n/Extensions <<\n/ADBE <<\n/BaseVersion /1.7\n/ExtensionLevel 5\n>>\n>>"
+                                + "\n/DSS " + dssObjectNumber + " 0 R\n>>";
+        objectOffsets.put(catalogObjectNumber, documentSize + update.size());
+        write(update, catalogObjectNumber + " " + catalogGenerationNumber + " obj\n" + updatedCatalog + "\nendobj\n");
+
+        long xrefOffset = documentSize + update.size();
+        writeXrefTable(update, objectOffsets);
+
+        String updatedTrailer = "<<\n" + trailer.getContentWithout("Size", "Prev")
+                                + "\n/Size " + nextObjectNumber
+                                + "\n/Prev " + lastXrefOffset + "\n>>";
+        write(update, "trailer\n" + updatedTrailer + "\nstartxref\n" + xrefOffset + "\n%%EOF\n");
+
+        logPdfProcessing.debug("Appending the validation data as a raw incremental update of {} bytes - {}", update.size(), trace.getId());
+        return update.toByteArray();
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Reads a (small) part of the staged document. The callers bound the length, so that only the end of the document is loaded
+     * in memory, whatever its size.
+     */
+    private String read(long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        try (InputStream documentIn = documentStaging.getInputStream()) {
+            long toSkip = position;
+            while (toSkip > 0) {
+                long skipped = documentIn.skip(toSkip);
+                if (skipped <= 0) {
+                    throw new IOException("Failed to skip to offset " + position + " of the staged document");
+                }
+                toSkip -= skipped;
+            }
+            int offset = 0;
+            while (offset < length) {
+                int bytesRead = documentIn.read(bytes, offset, length - offset);
+                if (bytesRead < 0) {
+                    throw new IOException("Unexpected end of the staged document");
+                }
+                offset += bytesRead;
+            }
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the offset of the given object as listed in the given cross-reference table, or -1 if the object is not listed
+     */
+    private static long findObjectOffset(String xrefTable, int objectNumber) {
+        Matcher subsectionMatcher = XREF_SUBSECTION_PATTERN.matcher(xrefTable);
+        int position = skipWhitespace(xrefTable, 0);
+        while (position < xrefTable.length() && subsectionMatcher.find(position) && subsectionMatcher.start() == position) {
+            int firstObjectNumber = Integer.parseInt(subsectionMatcher.group(1));
+            int count = Integer.parseInt(subsectionMatcher.group(2));
+            int entriesStart = subsectionMatcher.end();
+            if (objectNumber >= firstObjectNumber && objectNumber < firstObjectNumber + count) {
+                int entryStart = entriesStart + (objectNumber - firstObjectNumber) * XREF_ENTRY_LENGTH;
+                String entry = xrefTable.substring(entryStart, entryStart + XREF_ENTRY_LENGTH);
+                return entry.charAt(17) == 'n' ? Long.parseLong(entry.substring(0, 10)) : -1;
+            }
+            position = skipWhitespace(xrefTable, entriesStart + count * XREF_ENTRY_LENGTH);
+        }
+        return -1;
+    }
+
+    /**
+     * Skips the PDF white-space characters and the comments.
+     */
+    private static int skipWhitespace(String text, int position) {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '%') {
+                while (position < text.length() && text.charAt(position) != '\r' && text.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (isWhitespace(c)) {
+                position++;
+            } else {
+                break;
+            }
+        }
+        return position;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return "()<>[]{}/%".indexOf(c) >= 0;
+    }
+
+    /**
+     * @return the position right after the PDF object (name, number, string, array, dictionary, etc) that starts at the given
+     * position, or -1 if the text there is not a well-formed object
+     */
+    private static int skipObject(String text, int position) {
+        char c = text.charAt(position);
+        if (text.startsWith("<<", position)) {
+            TextDictionary dictionary = TextDictionary.parse(text, position);
+            return dictionary == null ? -1 : dictionary.end;
+        }
+        if (c == '<') {
+            int end = text.indexOf('>', position);
+            return end < 0 ? -1 : end + 1;
+        }
+        if (c == '(') {
+            int depth = 0;
+            for (; position < text.length(); position++) {
+                char current = text.charAt(position);
+                if (current == '\\') {
+                    position++;
+                } else if (current == '(') {
+                    depth++;
+                } else if (current == ')' && --depth == 0) {
+                    return position + 1;
+                }
+            }
+            return -1;
+        }
+        if (c == '[') {
+            position++;
+            while (true) {
+                position = skipWhitespace(text, position);
+                if (position >= text.length()) {
+                    return -1;
+                }
+                if (text.charAt(position) == ']') {
+                    return position + 1;
+                }
+                position = skipObject(text, position);
+                if (position < 0) {
+                    return -1;
+                }
+            }
+        }
+        if (c == '/') {
+            position++;
+        } else if (isDelimiter(c)) {
+            return -1;
+        }
+        while (position < text.length() && !isWhitespace(text.charAt(position)) && !isDelimiter(text.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static String writeStreams(ByteArrayOutputStream update, long documentSize, List<byte[]> contents,
+                                       Map<Integer, Long> objectOffsets, int firstObjectNumber) throws IOException {
+        StringBuilder references = new StringBuilder();
+        int objectNumber = firstObjectNumber;
+        for (byte[] content : contents) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(compressed)) {
+                deflaterOut.write(content);
+            }
+            objectOffsets.put(objectNumber, documentSize + update.size());
+            write(update, objectNumber + " 0 obj\n<<\n/Length " + compressed.size() + "\n/Filter /FlateDecode\n>>\nstream\r\n");
+            compressed.writeTo(update);
+            write(update, "\r\nendstream\nendobj\n");
+            if (references.length() > 0) {
+                references.append(' ');
+            }
+            references.append(objectNumber).append(" 0 R");
+            objectNumber++;
+        }
+        return references.toString();
+    }
+
+    private void writeXrefTable(ByteArrayOutputStream update, Map<Integer, Long> objectOffsets) throws IOException {
+        write(update, "xref\n");
+        List<Integer> objectNumbers = new ArrayList<>(objectOffsets.keySet());
+        int subsectionStart = 0;
+        while (subsectionStart < objectNumbers.size()) {
+            int subsectionEnd = subsectionStart + 1;
+            while (subsectionEnd < objectNumbers.size()
+                   && objectNumbers.get(subsectionEnd) == objectNumbers.get(subsectionEnd - 1) + 1) {
+                subsectionEnd++;
+            }
+            write(update, objectNumbers.get(subsectionStart) + " " + (subsectionEnd - subsectionStart) + "\n");
+            for (int index = subsectionStart; index < subsectionEnd; index++) {
+                int objectNumber = objectNumbers.get(index);
+                int generationNumber = objectNumber == catalogObjectNumber ? catalogGenerationNumber : 0;
+                write(update, String.format("%010d %05d n\r\n", objectOffsets.get(objectNumber), generationNumber));
+            }
+            subsectionStart = subsectionEnd;
+        }
+    }
+
+    private static void write(ByteArrayOutputStream update, String text) throws IOException {
+        update.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private byte[] notSupported(String reason) {
+        logPdfProcessing.debug("Cannot append the validation data as a raw incremental update ({}), "
+                               + "falling back to the full document update - {}", reason, trace.getId());
+        return null;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * A PDF dictionary written as text, with the positions of its top-level entries. Nested arrays and dictionaries are only
+     * checked for being well-formed; their content is not indexed.
+     */
+    private static final class TextDictionary {
+
+        private final String text;
+        private final int start;
+        private final int end;
+        /**
+         * Key (without the leading slash) to {start of the key, start of the value, end of the value}.
+         */
+        private final Map<String, int[]> entries;
+
+        private TextDictionary(String text, int start, int end, Map<String, int[]> entries) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.entries = entries;
+        }
+
+        /**
+         * @return the dictionary that starts at the given position, or NULL if the text there is not a well-formed dictionary
+         */
+        static TextDictionary parse(String text, int start) {
+            if (!text.startsWith("<<", start)) {
+                return null;
+            }
+            Map<String, int[]> entries = new HashMap<>();
+            int position = start + 2;
+            while (true) {
+                position = skipWhitespace(text, position);
+                if (position >= text.length()) {
+                    return null;
+                }
+                if (text.startsWith(">>", position)) {
+                    return new TextDictionary(text, start, position + 2, entries);
+                }
+                if (text.charAt(position) != '/') {
+                    return null;
+                }
+                int keyStart = position;
+                position = skipObject(text, position);
+                String key = decodeName(text.substring(keyStart + 1, position));
+                position = skipWhitespace(text, position);
+                if (position >= text.length()) {
+                    return null;
+                }
+                int valueStart = position;
+                Matcher referenceMatcher = REFERENCE_PATTERN.matcher(text);
+                position = referenceMatcher.find(valueStart) ? referenceMatcher.end() : skipObject(text, valueStart);
+                if (position < 0 || entries.put(key, new int[]{keyStart, valueStart, position}) != null) {
+                    return null;
+                }
+            }
+        }
+
+        boolean containsKey(String key) {
+            return entries.containsKey(key);
+        }
+
+        /**
+         * @return the text of the value of the given key, or an empty string if the key is not in this dictionary
+         */
+        String getValue(String key) {
+            int[] entry = entries.get(key);
+            return entry == null ? "" : text.substring(entry[1], entry[2]);
+        }
+
+        /**
+         * @return the text between the opening and closing brackets of this dictionary, trimmed and without the given entries
+         */
+        String getContentWithout(String... keys) {
+            List<int[]> removed = new ArrayList<>();
+            for (String key : keys) {
+                if (entries.containsKey(key)) {
+                    removed.add(entries.get(key));
+                }
+            }
+            removed.sort((first, second) -> Integer.compare(first[0], second[0]));
+            StringBuilder content = new StringBuilder();
+            int position = start + 2;
+            for (int[] entry : removed) {
+                content.append(text, position, entry[0]);
+                position = entry[2];
+            }
+            content.append(text, position, end - 2);
+            return content.toString().trim();
+        }
+
+        private static String decodeName(String name) {
+            StringBuilder decoded = new StringBuilder();
+            for (int index = 0; index < name.length(); index++) {
+                char c = name.charAt(index);
+                if (c == '#' && index + 2 < name.length()) {
+                    try {
+                        decoded.append((char) Integer.parseInt(name.substring(index + 1, index + 3), 16));
+                        index += 2;
+                        continue;
+                    } catch (NumberFormatException ignored) {
+                        // not an escape sequence, keep the character as it is
+                    }
+                }
+                decoded.append(c);
+            }
+            return decoded.toString();
+        }
+
+    }
+
+}
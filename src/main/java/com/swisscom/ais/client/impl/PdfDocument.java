@@ -22,11 +22,19 @@ import com.swisscom.ais.client.rest.model.DigestAlgorithm;
 import com.swisscom.ais.client.rest.model.SignatureType;
 import com.swisscom.ais.client.utils.Trace;
 import com.swisscom.ais.client.utils.Utils;
+import org.apache.fontbox.ttf.CmapLookup;
+import org.apache.fontbox.ttf.TrueTypeFont;
 import org.apache.pdfbox.cos.COSArray;
 import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
 import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
 import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
@@ -45,6 +53,7 @@ import org.apache.pdfbox.pdmodel.interactive.digitalsignature.*;
 import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
 import org.apache.pdfbox.pdmodel.interactive.form.PDField;
 import org.apache.pdfbox.pdmodel.interactive.form.PDSignatureField;
+import org.apache.pdfbox.util.Hex;
 import org.apache.pdfbox.util.Matrix;
 
 import java.awt.*;
@@ -56,6 +65,7 @@ import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Calendar;
 import java.util.List;
@@ -64,37 +74,81 @@ import static com.swisscom.ais.client.utils.Utils.closeResource;
 
 public class PdfDocument implements Closeable {
 
+    private static final int DIGEST_BUFFER_SIZE = 8 * 1024;
+
     private final InputStream contentIn;
+    private final RandomAccessRead randomAccessContentIn;
     private final OutputStream contentOut;
     private final VisibleSignatureDefinition signatureDefinition;
-    private final ByteArrayOutputStream inMemoryStream;
+    private final DocumentStaging documentStaging;
+    private final MemoryUsageSetting memoryUsageSetting;
+    private final VisualSignatureTemplateCache visualSignatureTemplateCache;
     private final String name;
     private final Trace trace;
 
     private String id;
     private PDDocument pdDocument;
-    private ExternalSigningSupport pbSigningSupport;
+    private long signatureContentsOffset;
+    private int signatureContentsCapacity;
+    private String signatureSubFilter;
+    private IncrementalDssUpdate incrementalDssUpdate;
     private String base64HashToSign;
     private DigestAlgorithm digestAlgorithm;
 
     // ----------------------------------------------------------------------------------------------------
 
     public PdfDocument(String name, InputStream contentIn, OutputStream contentOut, VisibleSignatureDefinition signatureDefinition, Trace trace) {
+        this(name, contentIn, contentOut, signatureDefinition, new InMemoryDocumentStaging(), MemoryUsageSetting.setupMainMemoryOnly(),
+             null, trace);
+    }
+
+    public PdfDocument(String name, InputStream contentIn, OutputStream contentOut, VisibleSignatureDefinition signatureDefinition,
+                       DocumentStaging documentStaging, MemoryUsageSetting memoryUsageSetting,
+                       VisualSignatureTemplateCache visualSignatureTemplateCache, Trace trace) {
+        this(name, contentIn, null, contentOut, signatureDefinition, documentStaging, memoryUsageSetting, visualSignatureTemplateCache, trace);
+    }
+
+    /**
+     * Creates a document that is read with random access (PDFBox reads only the parts of the document that it needs, instead of
+     * first copying it all to memory).
+     */
+    public PdfDocument(String name, RandomAccessRead contentIn, OutputStream contentOut, VisibleSignatureDefinition signatureDefinition,
+                       DocumentStaging documentStaging, MemoryUsageSetting memoryUsageSetting,
+                       VisualSignatureTemplateCache visualSignatureTemplateCache, Trace trace) {
+        this(name, null, contentIn, contentOut, signatureDefinition, documentStaging, memoryUsageSetting, visualSignatureTemplateCache, trace);
+    }
+
+    private PdfDocument(String name, InputStream contentIn, RandomAccessRead randomAccessContentIn, OutputStream contentOut,
+                        VisibleSignatureDefinition signatureDefinition, DocumentStaging documentStaging,
+                        MemoryUsageSetting memoryUsageSetting, VisualSignatureTemplateCache visualSignatureTemplateCache, Trace trace) {
         this.name = name;
         this.contentIn = contentIn;
+        this.randomAccessContentIn = randomAccessContentIn;
         this.contentOut = contentOut;
         this.signatureDefinition = signatureDefinition;
-
-        this.inMemoryStream = new ByteArrayOutputStream();
+        this.documentStaging = documentStaging;
+        this.memoryUsageSetting = memoryUsageSetting;
+        this.visualSignatureTemplateCache = visualSignatureTemplateCache;
         this.trace = trace;
     }
 
     public void prepareForSigning(DigestAlgorithm digestAlgorithm,
                                   SignatureType signatureType,
                                   AbstractUserData userData) throws IOException, NoSuchAlgorithmException {
+        prepareForSigning(digestAlgorithm, signatureType, signatureType.getEstimatedSignatureSizeInBytes(), userData);
+    }
+
+    /**
+     * Prepares the document for signing, reserving the given number of bytes for the signature (instead of the fixed estimate of the
+     * signature type).
+     */
+    public void prepareForSigning(DigestAlgorithm digestAlgorithm,
+                                  SignatureType signatureType,
+                                  int estimatedSignatureSizeInBytes,
+                                  AbstractUserData userData) throws IOException, NoSuchAlgorithmException {
         this.digestAlgorithm = digestAlgorithm;
         id = Utils.generateDocumentId();
-        pdDocument = PDDocument.load(contentIn);
+        pdDocument = randomAccessContentIn != null ? loadDocument(randomAccessContentIn) : PDDocument.load(contentIn, memoryUsageSetting);
 
         int accessPermissions = getDocumentPermissions();
         if (accessPermissions == 1) {
@@ -129,7 +183,7 @@ public class PdfDocument implements Closeable {
         pdSignature.setContactInfo(userData.getSignatureContactInfo());
 
         SignatureOptions options = new SignatureOptions();
-        options.setPreferredSignatureSize(signatureType.getEstimatedSignatureSizeInBytes());
+        options.setPreferredSignatureSize(estimatedSignatureSizeInBytes);
 
         // create a visible signature at the specified coordinates
         if (signatureDefinition != null) {
@@ -150,47 +204,108 @@ public class PdfDocument implements Closeable {
         // for more details: https://wwwimages2.adobe.com/content/dam/acom/en/devnet/pdf/pdfs/PDF32000_2008.pdf see section 12.7.4.5
         setPermissionsForSignatureOnly();
 
-        pbSigningSupport = pdDocument.saveIncrementalForExternalSigning(inMemoryStream);
+        OutputStream stagingOut = documentStaging.getOutputStream();
+        ExternalSigningSupport pbSigningSupport = pdDocument.saveIncrementalForExternalSigning(stagingOut);
 
         MessageDigest digest = MessageDigest.getInstance(digestAlgorithm.getDigestAlgorithm());
-        byte[] contentToSign = IOUtils.toByteArray(pbSigningSupport.getContent());
-        byte[] hashToSign = digest.digest(contentToSign);
+        byte[] hashToSign;
+        try (InputStream contentToSign = pbSigningSupport.getContent()) {
+            hashToSign = digestContent(contentToSign, digest);
+        }
         options.close();
+
+        // write the document to the staging area right away, with an empty /Contents placeholder, so that the (potentially large)
+        // parsed document does not stay in memory while waiting for the signature; the signature is later patched into the placeholder
+        pbSigningSupport.setSignature(new byte[0]);
+        stagingOut.close();
+        int[] byteRange = pdSignature.getByteRange();
+        signatureContentsOffset = byteRange[1] + 1L;
+        signatureContentsCapacity = byteRange[2] - byteRange[1] - 2;
+        signatureSubFilter = pdSignature.getSubFilter();
+        COSDocument cosDocument = pdDocument.getDocument();
+        COSBase catalogReference = cosDocument.getTrailer().getItem(COSName.ROOT);
+        if (!pdDocument.isEncrypted() && !cosDocument.isXRefStream() && catalogReference instanceof COSObject) {
+            COSObject catalogObject = (COSObject) catalogReference;
+            incrementalDssUpdate = new IncrementalDssUpdate(documentStaging, (int) catalogObject.getObjectNumber(),
+                                                            catalogObject.getGenerationNumber(), trace);
+        }
+        closeResource(pdDocument, trace);
+        closeResource(contentIn, trace);
+        closeResource(randomAccessContentIn, trace);
+        pdDocument = null;
+
         base64HashToSign = Base64.getEncoder().encodeToString(hashToSign);
     }
 
     public void finishSignature(byte[] signatureContent, List<byte[]> crlEntries, List<byte[]> ocspEntries) {
+        byte[] hexSignatureContent = Hex.getBytes(signatureContent);
+        if (hexSignatureContent.length > signatureContentsCapacity) {
+            throw new RestClientException("The signature of document [" + name + "] does not fit in the space reserved for it (" +
+                                          signatureContent.length + " bytes received, " + signatureContentsCapacity / 2 +
+                                          " bytes reserved) - " + trace.getId());
+        }
         try {
-            pbSigningSupport.setSignature(signatureContent);
-            closeResource(pdDocument, trace);
-            closeResource(contentIn, trace);
-            closeResource(inMemoryStream, trace);
+            documentStaging.patch(signatureContentsOffset, hexSignatureContent);
 
-            byte[] documentBytes = inMemoryStream.toByteArray();
+            byte[] dssUpdate = null;
+            if ((crlEntries != null || ocspEntries != null) && incrementalDssUpdate != null) {
+                byte[] paddedSignatureContent = Arrays.copyOf(signatureContent, signatureContentsCapacity / 2);
+                dssUpdate = incrementalDssUpdate.build(paddedSignatureContent, signatureSubFilter, crlEntries, ocspEntries);
+            }
 
-            if (crlEntries != null || ocspEntries != null) {
-                pdDocument = PDDocument.load(documentBytes);
+            if (dssUpdate != null) {
+                documentStaging.writeTo(contentOut);
+                contentOut.write(dssUpdate);
+            } else if (crlEntries != null || ocspEntries != null) {
+                pdDocument = documentStaging.loadDocument(memoryUsageSetting);
 
-                CrlOcspExtender metadata = new CrlOcspExtender(pdDocument, documentBytes, trace);
+                CrlOcspExtender metadata = new CrlOcspExtender(pdDocument, documentStaging, trace);
                 metadata.extendPdfWithCrlAndOcsp(crlEntries, ocspEntries);
 
                 pdDocument.saveIncremental(contentOut);
                 closeResource(pdDocument, trace);
             } else {
-                contentOut.write(inMemoryStream.toByteArray());
+                documentStaging.writeTo(contentOut);
             }
             closeResource(contentOut, trace);
+            closeResource(documentStaging, trace);
         } catch (Exception e) {
             throw new RestClientException("Failed to embed the signature(s) in the document(s) and close the streams - " + trace.getId(), e);
         }
     }
 
+    private PDDocument loadDocument(RandomAccessRead source) throws IOException {
+        ScratchFile scratchFile = new ScratchFile(memoryUsageSetting);
+        try {
+            PDFParser parser = new PDFParser(source, scratchFile);
+            parser.parse();
+            return parser.getPDDocument();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(scratchFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Feeds the content to sign into the digest in fixed-size chunks, so that the signed byte ranges of the document are never copied
+     * into a separate array.
+     */
+    private static byte[] digestContent(InputStream contentToSign, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = contentToSign.read(buffer)) != -1) {
+            digest.update(buffer, 0, bytesRead);
+        }
+        return digest.digest();
+    }
+
     @Override
     public void close() {
         closeResource(pdDocument, trace);
         closeResource(contentIn, trace);
-        closeResource(inMemoryStream, trace);
+        closeResource(randomAccessContentIn, trace);
         closeResource(contentOut, trace);
+        closeResource(documentStaging, trace);
     }
 
     // ----------------------------------------------------------------------------------------------------
@@ -260,6 +375,13 @@ public class PdfDocument implements Closeable {
 
     // ----------------------------------------------------------------------------------------------------
 
+    /**
+     * @return the number of bytes reserved for the signature in the prepared document
+     */
+    public int getSignatureCapacityInBytes() {
+        return signatureContentsCapacity / 2;
+    }
+
     public String getId() {
         return id;
     }
@@ -320,8 +442,72 @@ public class PdfDocument implements Closeable {
     // create a template PDF document with empty signature and return it as a stream.
     private InputStream createVisualSignatureTemplate(PDDocument srcDoc, int pageNum, String iconPath, PDRectangle rect, PDSignature signature, String ttfFontPath)
             throws IOException {
-        try (PDDocument doc = new PDDocument()) {
-            PDPage page = new PDPage(srcDoc.getPage(pageNum).getMediaBox());
+        PDPage srcPage = srcDoc.getPage(pageNum);
+        String text = createVisualSignatureText(signature);
+        if (visualSignatureTemplateCache != null) {
+            VisualSignatureTemplateCache.TemplateKey key = new VisualSignatureTemplateCache.TemplateKey(
+                iconPath, ttfFontPath, rect, srcPage.getMediaBox(), srcPage.getRotation());
+            InputStream template = visualSignatureTemplateCache.getTemplate(
+                key, text, slotLength -> renderVisualSignatureTemplateWithTextSlot(srcPage, iconPath, rect, ttfFontPath, slotLength), trace);
+            if (template != null) {
+                return template;
+            }
+        }
+        byte[] template = renderVisualSignatureTemplate(srcPage, iconPath, rect, new TemplateText() {
+            @Override
+            public PDFont loadFont(PDDocument doc) throws IOException {
+                return getFont(ttfFontPath, doc);
+            }
+
+            @Override
+            public void showText(PDPageContentStream cs) throws IOException {
+                cs.showText(text);
+            }
+        });
+        return new ByteArrayInputStream(template);
+    }
+
+    /**
+     * Renders a template in which the text is a fixed width slot, for the {@link VisualSignatureTemplateCache}. A TrueType font is
+     * embedded completely (not as a subset), so that any text can later be stamped into the slot.
+     */
+    private VisualSignatureTemplateCache.RenderedTemplate renderVisualSignatureTemplateWithTextSlot(PDPage srcPage, String iconPath,
+                                                                                                   PDRectangle rect, String ttfFontPath,
+                                                                                                   int slotLength) throws IOException {
+        TrueTypeFont trueTypeFont = null;
+        VisualSignatureTemplateCache.TextEncoder textEncoder;
+        if (ttfFontPath != null) {
+            trueTypeFont = SignatureAppearanceResourceCache.getInstance().getFont(new File(ttfFontPath));
+            textEncoder = createGlyphIdEncoder(trueTypeFont.getUnicodeCmapLookup(false));
+        } else {
+            textEncoder = PdfDocument::encodeWithStandardFont;
+        }
+        String slot = textEncoder.createSlot(slotLength);
+        if (slot == null) {
+            return new VisualSignatureTemplateCache.RenderedTemplate(new byte[0], textEncoder);
+        }
+        TrueTypeFont embeddedFont = trueTypeFont;
+        byte[] template = renderVisualSignatureTemplate(srcPage, iconPath, rect, new TemplateText() {
+            @Override
+            public PDFont loadFont(PDDocument doc) throws IOException {
+                return embeddedFont != null ? PDType0Font.load(doc, embeddedFont, false) : PDType1Font.HELVETICA_BOLD;
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            public void showText(PDPageContentStream cs) throws IOException {
+                // the slot must be written exactly as the hex string that the template cache later finds and patches; the public
+                // showText() methods re-encode the text with the font and can write it as a literal string instead
+                cs.appendRawCommands(slot + " Tj\n");
+            }
+        });
+        return new VisualSignatureTemplateCache.RenderedTemplate(template, textEncoder);
+    }
+
+    private byte[] renderVisualSignatureTemplate(PDPage srcPage, String iconPath, PDRectangle rect, TemplateText templateText)
+            throws IOException {
+        try (PDDocument doc = new PDDocument(memoryUsageSetting)) {
+            PDPage page = new PDPage(srcPage.getMediaBox());
             doc.addPage(page);
             PDAcroForm acroForm = new PDAcroForm(doc);
             doc.getDocumentCatalog().setAcroForm(acroForm);
@@ -344,7 +530,7 @@ public class PdfDocument implements Closeable {
             PDRectangle bbox = new PDRectangle(rect.getWidth(), rect.getHeight());
             float height = bbox.getHeight();
             Matrix initialScale = null;
-            switch (srcDoc.getPage(pageNum).getRotation()) {
+            switch (srcPage.getRotation()) {
                 case 90:
                     form.setMatrix(AffineTransform.getQuadrantRotateInstance(1));
                     initialScale = Matrix.getScaleInstance(bbox.getWidth() / bbox.getHeight(),
@@ -387,7 +573,7 @@ public class PdfDocument implements Closeable {
                         // save and restore graphics if the image is too large and needs to be scaled
                         cs.saveGraphicsState();
                         cs.transform(Matrix.getScaleInstance(0.25f, 0.25f));
-                        PDImageXObject img = PDImageXObject.createFromFileByExtension(image, doc);
+                        PDImageXObject img = SignatureAppearanceResourceCache.getInstance().getImage(image, doc);
                         cs.drawImage(img, 0, 0);
                         cs.restoreGraphicsState();
                     }
@@ -397,21 +583,13 @@ public class PdfDocument implements Closeable {
                 float fontSize = 8;
                 cs.beginText();
                 float leading = fontSize * 1.5f;
-                PDFont font = getFont(ttfFontPath, doc);
+                PDFont font = templateText.loadFont(doc);
                 cs.setFont(font, fontSize);
                 cs.setNonStrokingColor(Color.black);
                 cs.newLineAtOffset(0, height - leading);
                 cs.setLeading(fontSize);
 
-                Calendar cal = signature.getSignDate();
-                ZoneId zoneId = ZoneId.of("Europe/Berlin");
-                LocalDateTime localDateTime = LocalDateTime.ofInstant(cal.toInstant(), zoneId);
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd.MM.yyyy, HH:mm:ss");
-
-                String formattedDate = localDateTime.format(formatter);
-                String reason = signature.getReason();
-
-                cs.showText(String.format("%s %s", reason, formattedDate));
+                templateText.showText(cs);
 
                 cs.endText();
             }
@@ -420,17 +598,72 @@ public class PdfDocument implements Closeable {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             doc.save(baos);
 
-            return new ByteArrayInputStream(baos.toByteArray());
+            return baos.toByteArray();
+        }
+    }
+
+    private static String createVisualSignatureText(PDSignature signature) {
+        Calendar cal = signature.getSignDate();
+        ZoneId zoneId = ZoneId.of("Europe/Berlin");
+        LocalDateTime localDateTime = LocalDateTime.ofInstant(cal.toInstant(), zoneId);
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd.MM.yyyy, HH:mm:ss");
+
+        String formattedDate = localDateTime.format(formatter);
+        String reason = signature.getReason();
+
+        return String.format("%s %s", reason, formattedDate);
+    }
+
+    private static byte[] encodeWithStandardFont(String text) {
+        try {
+            return PDType1Font.HELVETICA_BOLD.encode(text);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
         }
     }
 
+    /**
+     * Encodes a text for a completely embedded TrueType font (Identity-H encoding, where the character codes are the glyph IDs).
+     */
+    private static VisualSignatureTemplateCache.TextEncoder createGlyphIdEncoder(CmapLookup cmapLookup) {
+        return text -> {
+            ByteArrayOutputStream codes = new ByteArrayOutputStream(text.length() * 2);
+            for (int index = 0; index < text.length(); ) {
+                int codePoint = text.codePointAt(index);
+                int glyphId = cmapLookup.getGlyphId(codePoint);
+                if (glyphId == 0) {
+                    return null;
+                }
+                codes.write(glyphId >> 8);
+                codes.write(glyphId);
+                index += Character.charCount(codePoint);
+            }
+            return codes.toByteArray();
+        };
+    }
+
+
     private static PDFont getFont(String ttfFontPath, PDDocument doc) throws IOException {
         PDFont font;
         if (ttfFontPath != null) {
-            font = PDType0Font.load(doc, new File(ttfFontPath));
+            font = PDType0Font.load(doc, SignatureAppearanceResourceCache.getInstance().getFont(new File(ttfFontPath)), true);
         } else {
             font = PDType1Font.HELVETICA_BOLD;
         }
         return font;
     }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * The font and the text of a visible signature template.
+     */
+    private interface TemplateText {
+
+        PDFont loadFont(PDDocument doc) throws IOException;
+
+        void showText(PDPageContentStream cs) throws IOException;
+
+    }
+
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import com.swisscom.ais.client.AisClientConfiguration;
+import com.swisscom.ais.client.RestClientException;
+import com.swisscom.ais.client.rest.model.ResponseHelper;
+import com.swisscom.ais.client.rest.model.signresp.AISSignResponse;
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.NamedThreadFactory;
+import com.swisscom.ais.client.utils.Trace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Central scheduler for the status polls of the pending (asynchronous) signatures. Instead of each signature sleeping on its own
+ * thread between two Pending requests, the scheduler keeps track of all outstanding AsyncResponseIDs and runs their polls on a
+ * small pool of threads. The delay between two polls grows with the configured backoff multiplier (up to the configured maximum)
+ * and is randomized with the configured jitter, so that the polls of many parallel signatures are spread in time.
+ * <p>
+ * One scheduler can be shared between several AIS clients (see {@link AisClientConfiguration#setPendingSignatureScheduler}).
+ */
+public class PendingSignatureScheduler implements Closeable {
+
+    private static final Logger logProtocol = LoggerFactory.getLogger(Loggers.CLIENT_PROTOCOL);
+
+    private final int pollingIntervalInMillis;
+    private final int pollingRounds;
+    private final double backoffMultiplier;
+    private final int maxPollingIntervalInMillis;
+    private final int jitterPercent;
+
+    private final ScheduledExecutorService executor;
+    private final Map<String, PendingSignature> outstandingSignatures = new ConcurrentHashMap<>();
+
+    // ----------------------------------------------------------------------------------------------------
+
+    public PendingSignatureScheduler(AisClientConfiguration configuration) {
+        this.pollingIntervalInMillis = configuration.getSignaturePollingIntervalInSeconds() * 1000;
+        this.pollingRounds = configuration.getSignaturePollingRounds();
+        this.backoffMultiplier = configuration.getSignaturePollingBackoffMultiplier();
+        this.maxPollingIntervalInMillis = Math.max(configuration.getSignaturePollingMaxIntervalInSeconds() * 1000, pollingIntervalInMillis);
+        this.jitterPercent = configuration.getSignaturePollingJitterPercent();
+        this.executor = Executors.newScheduledThreadPool(configuration.getSignaturePollingThreadPoolSize(),
+                                                         new NamedThreadFactory("ais-client-poll"));
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts polling for the status of a pending signature.
+     *
+     * @param pendingResponse the response that signaled the pending signature (it carries the AsyncResponseID)
+     * @param delayFirstPoll  whether to wait one polling interval before the first poll (e.g. to give the user time to open the consent URL)
+     * @param poller          the code that sends one Pending request
+     * @param trace           the trace of the signature
+     * @return a future that is completed with the first response that is not pending anymore, or with the last response received
+     * once all the polling rounds have been used
+     */
+    public CompletableFuture<AISSignResponse> submit(AISSignResponse pendingResponse, boolean delayFirstPoll, StatusPoller poller, Trace trace) {
+        String asyncResponseId = ResponseHelper.getResponseId(pendingResponse);
+        if (asyncResponseId == null) {
+            CompletableFuture<AISSignResponse> failure = new CompletableFuture<>();
+            failure.completeExceptionally(new RestClientException("The pending AIS response has no AsyncResponseID - " + trace.getId()));
+            return failure;
+        }
+        PendingSignature pendingSignature = new PendingSignature(asyncResponseId, poller, trace);
+        outstandingSignatures.put(pendingSignature.asyncResponseId, pendingSignature);
+        pendingSignature.result.whenComplete((response, error) -> outstandingSignatures.remove(pendingSignature.asyncResponseId));
+        scheduleRound(pendingSignature, pendingResponse, 0, delayFirstPoll ? computeDelayInMillis(0) : 0);
+        return pendingSignature.result;
+    }
+
+    /**
+     * @return the number of signatures for which this scheduler is currently polling
+     */
+    public int getOutstandingSignaturesCount() {
+        return outstandingSignatures.size();
+    }
+
+    /**
+     * @return the executor that runs the polls; the retries of a blocking poll are scheduled on it as well
+     */
+    ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        List<PendingSignature> remaining = new ArrayList<>(outstandingSignatures.values());
+        for (PendingSignature pendingSignature : remaining) {
+            pendingSignature.result.completeExceptionally(new RestClientException(
+                "The pending signature scheduler was closed while polling for the signature status - " + pendingSignature.trace.getId()));
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private void scheduleRound(PendingSignature pendingSignature, AISSignResponse previousResponse, int round, long delayInMillis) {
+        try {
+            pendingSignature.nextPoll = executor.schedule(() -> runRound(pendingSignature, previousResponse, round),
+                                                          delayInMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            pendingSignature.result.completeExceptionally(new RestClientException(
+                "Failed to schedule the poll for the signature status - " + pendingSignature.trace.getId(), e));
+        }
+    }
+
+    private void runRound(PendingSignature pendingSignature, AISSignResponse previousResponse, int round) {
+        if (pendingSignature.result.isDone()) {
+            return;
+        }
+        CompletableFuture<AISSignResponse> pollResult;
+        try {
+            pollResult = pendingSignature.poller.poll(previousResponse, round);
+        } catch (Exception e) {
+            pollResult = new CompletableFuture<>();
+            pollResult.completeExceptionally(e);
+        }
+        pollResult.whenComplete((response, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                pendingSignature.result.completeExceptionally(cause);
+            } else if (ResponseHelper.responseIsAsyncPending(response) && round + 1 < pollingRounds) {
+                long delayInMillis = computeDelayInMillis(round + 1);
+                logProtocol.debug("Signature is still pending, next poll in {} ms - {}", delayInMillis, pendingSignature.trace.getId());
+                scheduleRound(pendingSignature, response, round + 1, delayInMillis);
+            } else {
+                pendingSignature.result.complete(response);
+            }
+        });
+    }
+
+    private long computeDelayInMillis(int round) {
+        double delay = Math.min(pollingIntervalInMillis * Math.pow(backoffMultiplier, Math.max(0, round - 1)), maxPollingIntervalInMillis);
+        if (jitterPercent > 0) {
+            delay += delay * jitterPercent / 100.0 * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        }
+        return Math.max(0, (long) delay);
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Sends one Pending request for a signature.
+     */
+    @FunctionalInterface
+    public interface StatusPoller {
+
+        /**
+         * @param previousResponse the last response received for this signature
+         * @param round            the polling round, starting from 0
+         * @return the future response of the Pending request
+         */
+        CompletableFuture<AISSignResponse> poll(AISSignResponse previousResponse, int round);
+
+    }
+
+    private static class PendingSignature {
+        private final String asyncResponseId;
+        private final StatusPoller poller;
+        private final Trace trace;
+        private final CompletableFuture<AISSignResponse> result = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> nextPoll;
+
+        private PendingSignature(String asyncResponseId, StatusPoller poller, Trace trace) {
+            this.asyncResponseId = asyncResponseId;
+            this.poller = poller;
+            this.trace = trace;
+            result.whenComplete((response, error) -> {
+                ScheduledFuture<?> scheduledPoll = nextPoll;
+                if (result.isCancelled() && scheduledPoll != null) {
+                    scheduledPoll.cancel(false);
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.swisscom.ais.client.AisClientConfiguration;
+import com.swisscom.ais.client.RestClientException;
+import com.swisscom.ais.client.rest.FaultResponseException;
+import com.swisscom.ais.client.rest.model.ResponseHelper;
+import com.swisscom.ais.client.rest.model.ResultMajorCode;
+import com.swisscom.ais.client.rest.model.ResultMinorCode;
+import com.swisscom.ais.client.rest.model.signresp.AISSignResponse;
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.Trace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Retries the AIS requests that can safely be repeated (the Pending requests and the Sign requests for timestamps) when they fail
+ * with a transient error. Only the exchange with AIS is repeated; the documents stay prepared in the meantime. A failure is
+ * retried when:
+ * <ul>
+ *     <li>the request could not be sent or its response could not be read (an I/O error, other than a TLS error or a response
+ *     that is not valid JSON, which would fail again);</li>
+ *     <li>AIS answered with one of the HTTP status codes 408, 425, 429, 500, 502, 503 or 504;</li>
+ *     <li>AIS answered with a ResponderError or SubsystemError whose minor code signals a temporary problem (CantServeTimely,
+ *     GeneralError, TimestampError or a Step Up transport error).</li>
+ * </ul>
+ * The delay between two attempts grows exponentially and is randomized with the configured jitter. Each retry takes one token
+ * from the retry budget (a token bucket); once the budget is used up, the failures are reported without retrying, so that the
+ * retries cannot multiply the load on a service that is already failing.
+ * <p>
+ * One retry policy, and so one retry budget, can be shared between several AIS clients (see
+ * {@link AisClientConfiguration#setRetryPolicy}).
+ */
+public class RetryPolicy {
+
+    private static final Logger logClient = LoggerFactory.getLogger(Loggers.CLIENT);
+
+    private static final Set<Integer> RETRYABLE_HTTP_STATUS_CODES = new HashSet<>(Arrays.asList(408, 425, 429, 500, 502, 503, 504));
+    private static final Set<ResultMinorCode> RETRYABLE_RESULT_MINOR_CODES = EnumSet.of(ResultMinorCode.CANT_SERVE_TIMELY,
+                                                                                          ResultMinorCode.GENERAL_ERROR,
+                                                                                          ResultMinorCode.TIMESTAMP_ERROR,
+                                                                                          ResultMinorCode.STEPUP_TRANSPORT_ERROR);
+
+    private final int maxAttempts;
+    private final int initialBackoffInMillis;
+    private final int maxBackoffInMillis;
+    private final double backoffMultiplier;
+    private final int jitterPercent;
+    private final RetryBudget retryBudget;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    public RetryPolicy(AisClientConfiguration configuration) {
+        this.maxAttempts = configuration.getRetryMaxAttempts();
+        this.initialBackoffInMillis = configuration.getRetryInitialBackoffInMillis();
+        this.maxBackoffInMillis = Math.max(configuration.getRetryMaxBackoffInMillis(), initialBackoffInMillis);
+        this.backoffMultiplier = configuration.getRetryBackoffMultiplier();
+        this.jitterPercent = configuration.getRetryJitterPercent();
+        this.retryBudget = new RetryBudget(configuration.getRetryBudgetCapacity(), configuration.getRetryBudgetRefillPerSecond());
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Runs a blocking request, retrying it (on the calling thread) while it fails with a transient error.
+     *
+     * @param operationName the name of the request, for logging
+     * @param request       the code that sends the request once
+     * @param trace         the trace of the signature
+     * @return the response of the last attempt
+     */
+    public AISSignResponse execute(String operationName, Supplier<AISSignResponse> request, Trace trace) {
+        for (int attempt = 1; ; attempt++) {
+            AISSignResponse response = null;
+            RuntimeException failure = null;
+            try {
+                response = request.get();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            if (!shouldRetry(operationName, response, failure, attempt, trace)) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+            try {
+                Thread.sleep(computeBackoffInMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RestClientException("Interrupted while waiting to retry the " + operationName + " - " + trace.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs a non-blocking request, retrying it while it fails with a transient error. The retries are scheduled on the given
+     * executor, so that no thread is blocked between two attempts.
+     *
+     * @param operationName the name of the request, for logging
+     * @param request       the code that sends the request once
+     * @param scheduler     the executor that runs the retries
+     * @param trace         the trace of the signature
+     * @return a future that is completed with the outcome of the last attempt
+     */
+    public CompletableFuture<AISSignResponse> executeAsync(String operationName, Supplier<CompletableFuture<AISSignResponse>> request,
+                                                           ScheduledExecutorService scheduler, Trace trace) {
+        CompletableFuture<AISSignResponse> result = new CompletableFuture<>();
+        runAttempt(operationName, request, 1, scheduler, result, trace);
+        return result;
+    }
+
+    /**
+     * @return whether the given failure of a request is transient, so that the request can be sent again
+     */
+    public boolean isRetryable(Throwable failure) {
+        Throwable cause = findClassifiedCause(failure);
+        if (cause instanceof FaultResponseException) {
+            return RETRYABLE_HTTP_STATUS_CODES.contains(((FaultResponseException) cause).getStatusCode());
+        }
+        if (cause instanceof SSLException || cause instanceof JsonProcessingException) {
+            return false;
+        }
+        return cause instanceof IOException || cause instanceof TimeoutException;
+    }
+
+    /**
+     * @return whether the given response signals a transient problem on the AIS side, so that the request can be sent again
+     */
+    public boolean isRetryable(AISSignResponse response) {
+        if (response == null || response.getSignResponse() == null || response.getSignResponse().getResult() == null) {
+            return false;
+        }
+        ResultMajorCode majorCode = ResultMajorCode.getByUri(response.getSignResponse().getResult().getResultMajor());
+        if (majorCode != ResultMajorCode.RESPONDER_ERROR && majorCode != ResultMajorCode.SUBSYSTEM_ERROR) {
+            return false;
+        }
+        ResultMinorCode minorCode = ResultMinorCode.getByUri(response.getSignResponse().getResult().getResultMinor());
+        return minorCode != null && RETRYABLE_RESULT_MINOR_CODES.contains(minorCode);
+    }
+
+    /**
+     * @return the number of retries that the retry budget currently allows
+     */
+    public int getAvailableRetries() {
+        return retryBudget.getAvailableTokens();
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private void runAttempt(String operationName, Supplier<CompletableFuture<AISSignResponse>> request, int attempt,
+                            ScheduledExecutorService scheduler, CompletableFuture<AISSignResponse> result, Trace trace) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<AISSignResponse> attemptResult;
+        try {
+            attemptResult = request.get();
+        } catch (Exception e) {
+            attemptResult = new CompletableFuture<>();
+            attemptResult.completeExceptionally(e);
+        }
+        attemptResult.whenComplete((response, error) -> {
+            Throwable failure = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (shouldRetry(operationName, response, failure, attempt, trace)) {
+                try {
+                    scheduler.schedule(() -> runAttempt(operationName, request, attempt + 1, scheduler, result, trace),
+                                       computeBackoffInMillis(attempt), TimeUnit.MILLISECONDS);
+                    return;
+                } catch (Exception e) {
+                    logClient.warn("Failed to schedule the retry of the {}: {} - {}", operationName, e.getMessage(), trace.getId());
+                }
+            }
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(response);
+            }
+        });
+    }
+
+    private boolean shouldRetry(String operationName, AISSignResponse response, Throwable failure, int attempt, Trace trace) {
+        boolean retryable = failure != null ? isRetryable(failure) : isRetryable(response);
+        if (!retryable || attempt >= maxAttempts) {
+            return false;
+        }
+        String reason = failure != null ? describeFailure(failure) : ResponseHelper.getResponseResultSummary(response);
+        if (!retryBudget.tryAcquire()) {
+            logClient.warn("The retry budget is used up, the {} is not retried after: {} - {}", operationName, reason, trace.getId());
+            return false;
+        }
+        logClient.info("Retrying the {} (attempt {}/{}) after: {} - {}", operationName, attempt + 1, maxAttempts, reason, trace.getId());
+        return true;
+    }
+
+    /**
+     * @return the cause (in the chain of the given failure) that decides whether the failure is transient
+     */
+    private static Throwable findClassifiedCause(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FaultResponseException || cause instanceof IOException || cause instanceof TimeoutException) {
+                return cause;
+            }
+        }
+        return failure;
+    }
+
+    private static String describeFailure(Throwable failure) {
+        Throwable cause = findClassifiedCause(failure);
+        if (cause instanceof FaultResponseException) {
+            return "HTTP " + ((FaultResponseException) cause).getStatusCode();
+        }
+        return cause.getClass().getSimpleName() + (cause.getMessage() == null ? "" : ": " + cause.getMessage());
+    }
+
+    private long computeBackoffInMillis(int attempt) {
+        double delay = Math.min(initialBackoffInMillis * Math.pow(backoffMultiplier, attempt - 1), maxBackoffInMillis);
+        if (jitterPercent > 0) {
+            delay += delay * jitterPercent / 100.0 * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        }
+        return Math.max(0, (long) delay);
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Token bucket that limits the rate of the retries.
+     */
+    private static class RetryBudget {
+        private final double capacity;
+        private final double refillPerNano;
+        private double tokens;
+        private long lastRefillTime;
+
+        private RetryBudget(int capacity, double refillPerSecond) {
+            this.capacity = capacity;
+            this.refillPerNano = refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = capacity;
+            this.lastRefillTime = System.nanoTime();
+        }
+
+        private synchronized boolean tryAcquire() {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private synchronized int getAvailableTokens() {
+            refill();
+            return (int) tokens;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillTime) * refillPerNano);
+            lastRefillTime = now;
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Process-wide cache of the resources used for drawing the visible signatures: the parsed TrueType fonts and the icons, already
+ * decoded and encoded as PDF image streams. Without this cache, each visible signature parses its font file and decodes (and
+ * re-encodes) its icon file again.
+ * <p>
+ * The fonts are shared between documents (and threads): PDFBox only reads from a parsed font and subsets it into each document
+ * when the document is saved. The images are copied into each document that uses them, from the cached encoded bytes. The cache is
+ * bounded by the total size of the cached files and images; the least recently used resources are evicted first. A changed file
+ * (different size or modification time) is loaded again.
+ */
+public class SignatureAppearanceResourceCache {
+
+    public static final long DEFAULT_MAX_SIZE_IN_BYTES = 32L * 1024 * 1024;
+
+    private static final SignatureAppearanceResourceCache INSTANCE = new SignatureAppearanceResourceCache(DEFAULT_MAX_SIZE_IN_BYTES);
+
+    private final Map<ResourceKey, CachedResource> resources = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxSizeInBytes;
+    private long sizeInBytes;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    public SignatureAppearanceResourceCache(long maxSizeInBytes) {
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * @return the cache that is shared by all the AIS clients of this JVM
+     */
+    public static SignatureAppearanceResourceCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the parsed TrueType font from the given file. The returned font is shared and must not be closed by the caller.
+     */
+    public TrueTypeFont getFont(File fontFile) throws IOException {
+        ResourceKey key = new ResourceKey(fontFile, false);
+        CachedResource resource = get(key);
+        if (resource == null) {
+            byte[] fontBytes = Files.readAllBytes(fontFile.toPath());
+            TrueTypeFont font = new TTFParser().parse(new ByteArrayInputStream(fontBytes));
+            resource = put(key, new CachedResource(font, null, fontBytes.length));
+        }
+        return resource.font;
+    }
+
+    /**
+     * Returns the image from the given file (see {@link PDImageXObject#createFromFileByExtension(File, PDDocument)}), as a new image
+     * of the given document.
+     */
+    public PDImageXObject getImage(File imageFile, PDDocument document) throws IOException {
+        ResourceKey key = new ResourceKey(imageFile, true);
+        CachedResource resource = get(key);
+        if (resource == null) {
+            CachedStream image;
+            try (PDDocument scratchDocument = new PDDocument()) {
+                image = new CachedStream(PDImageXObject.createFromFileByExtension(imageFile, scratchDocument).getCOSObject());
+            }
+            resource = put(key, new CachedResource(null, image, image.getSizeInBytes()));
+        }
+        return new PDImageXObject(new PDStream(resource.image.createStream(document)), null);
+    }
+
+    public synchronized void setMaxSizeInBytes(long maxSizeInBytes) {
+        this.maxSizeInBytes = maxSizeInBytes;
+        evict();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized void clear() {
+        resources.clear();
+        sizeInBytes = 0;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private synchronized CachedResource get(ResourceKey key) {
+        return resources.get(key);
+    }
+
+    private synchronized CachedResource put(ResourceKey key, CachedResource resource) {
+        // another thread may have loaded the same resource in the meantime; keep the first one
+        CachedResource existingResource = resources.get(key);
+        if (existingResource != null) {
+            return existingResource;
+        }
+        if (resource.sizeInBytes <= maxSizeInBytes) {
+            resources.put(key, resource);
+            sizeInBytes += resource.sizeInBytes;
+            evict();
+        }
+        return resource;
+    }
+
+    private void evict() {
+        Iterator<CachedResource> iterator = resources.values().iterator();
+        while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+            // the evicted fonts are not closed, as they might still be in use; they are all in memory anyway
+            sizeInBytes -= iterator.next().sizeInBytes;
+            iterator.remove();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static class ResourceKey {
+        private final String path;
+        private final long lastModified;
+        private final long length;
+        private final boolean image;
+
+        private ResourceKey(File file, boolean image) {
+            this.path = file.getAbsolutePath();
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.image = image;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof ResourceKey)) {
+                return false;
+            }
+            ResourceKey that = (ResourceKey) other;
+            return lastModified == that.lastModified && length == that.length && image == that.image && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, length, image);
+        }
+    }
+
+    private static class CachedResource {
+        private final TrueTypeFont font;
+        private final CachedStream image;
+        private final long sizeInBytes;
+
+        private CachedResource(TrueTypeFont font, CachedStream image, long sizeInBytes) {
+            this.font = font;
+            this.image = image;
+            this.sizeInBytes = sizeInBytes;
+        }
+    }
+
+    /**
+     * Copy of a PDF stream (its dictionary and its encoded data) that does not depend on the document it was read from. The nested
+     * streams (e.g. the soft mask of an image) are copied as well.
+     */
+    private static class CachedStream {
+        private final Map<COSName, Object> entries = new LinkedHashMap<>();
+        private final byte[] encodedData;
+
+        private CachedStream(COSStream stream) throws IOException {
+            for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+                if (!COSName.LENGTH.equals(entry.getKey())) {
+                    entries.put(entry.getKey(), copy(entry.getValue()));
+                }
+            }
+            try (InputStream in = stream.createRawInputStream()) {
+                encodedData = IOUtils.toByteArray(in);
+            }
+        }
+
+        private long getSizeInBytes() {
+            long size = encodedData.length;
+            for (Object value : entries.values()) {
+                if (value instanceof CachedStream) {
+                    size += ((CachedStream) value).getSizeInBytes();
+                }
+            }
+            return size;
+        }
+
+        private COSStream createStream(PDDocument document) throws IOException {
+            COSStream stream = document.getDocument().createCOSStream();
+            for (Map.Entry<COSName, Object> entry : entries.entrySet()) {
+                stream.setItem(entry.getKey(), create(entry.getValue(), document));
+            }
+            try (OutputStream out = stream.createRawOutputStream()) {
+                out.write(encodedData);
+            }
+            return stream;
+        }
+
+        private static Object copy(COSBase value) throws IOException {
+            if (value instanceof COSObject) {
+                return copy(((COSObject) value).getObject());
+            }
+            if (value instanceof COSStream) {
+                return new CachedStream((COSStream) value);
+            }
+            if (value instanceof COSDictionary) {
+                Map<COSName, Object> copy = new LinkedHashMap<>();
+                for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) value).entrySet()) {
+                    copy.put(entry.getKey(), copy(entry.getValue()));
+                }
+                return copy;
+            }
+            if (value instanceof COSArray) {
+                List<Object> copy = new ArrayList<>();
+                for (COSBase item : (COSArray) value) {
+                    copy.add(copy(item));
+                }
+                return copy;
+            }
+            // names, numbers, booleans and strings are not modified when an image is drawn, so they can be shared
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static COSBase create(Object value, PDDocument document) throws IOException {
+            if (value instanceof CachedStream) {
+                return ((CachedStream) value).createStream(document);
+            }
+            if (value instanceof Map) {
+                COSDictionary dictionary = new COSDictionary();
+                for (Map.Entry<COSName, Object> entry : ((Map<COSName, Object>) value).entrySet()) {
+                    dictionary.setItem(entry.getKey(), create(entry.getValue(), document));
+                }
+                return dictionary;
+            }
+            if (value instanceof List) {
+                COSArray array = new COSArray();
+                for (Object item : (List<Object>) value) {
+                    array.add(create(item, document));
+                }
+                return array;
+            }
+            return (COSBase) value;
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import com.swisscom.ais.client.model.SignatureMode;
+import com.swisscom.ais.client.rest.model.SignatureType;
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.Trace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Learns the size of the signatures that AIS returns, per signature mode and certificate profile (claimed identity), so that the
+ * space reserved for the signature in the PDF document (the /Contents placeholder) fits the real signatures instead of the fixed
+ * {@link SignatureType#getEstimatedSignatureSizeInBytes() estimate} of the signature type. The estimate is the largest signature seen
+ * so far for the profile, plus a safety margin. Until a profile has been seen, the fixed estimate of the signature type is used.
+ * <p>
+ * When an estimates file is given, the learned sizes are loaded from it on creation and saved to it each time a larger signature
+ * is seen, so that they survive a restart of the client.
+ */
+public class SignatureSizeEstimator {
+
+    private static final Logger logClient = LoggerFactory.getLogger(Loggers.CLIENT);
+
+    private static final int SIZE_GRANULARITY_IN_BYTES = 1024;
+
+    private final int marginPercent;
+    private final File estimatesFile;
+    private final Map<String, Integer> largestSignatureSizes = new ConcurrentHashMap<>();
+
+    // ----------------------------------------------------------------------------------------------------
+
+    public SignatureSizeEstimator(int marginPercent, File estimatesFile) {
+        this.marginPercent = marginPercent;
+        this.estimatesFile = estimatesFile;
+        loadEstimates();
+    }
+
+    /**
+     * @return the number of bytes to reserve for a signature of the given mode, type and certificate profile
+     */
+    public int estimateSignatureSize(SignatureMode signatureMode, SignatureType signatureType, String claimedIdentityName) {
+        Integer largestSize = largestSignatureSizes.get(createProfileKey(signatureMode, claimedIdentityName));
+        if (largestSize == null) {
+            return signatureType.getEstimatedSignatureSizeInBytes();
+        }
+        long sizeWithMargin = largestSize + (long) largestSize * marginPercent / 100;
+        // round up, so that small variations of the signature size do not change the layout of the documents
+        long roundedSize = (sizeWithMargin + SIZE_GRANULARITY_IN_BYTES - 1) / SIZE_GRANULARITY_IN_BYTES * SIZE_GRANULARITY_IN_BYTES;
+        return (int) Math.min(roundedSize, Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Records the size of a signature received from AIS.
+     */
+    public void recordSignatureSize(SignatureMode signatureMode, String claimedIdentityName, int signatureSizeInBytes, Trace trace) {
+        String profileKey = createProfileKey(signatureMode, claimedIdentityName);
+        Integer previousSize = largestSignatureSizes.get(profileKey);
+        if (previousSize != null && previousSize >= signatureSizeInBytes) {
+            return;
+        }
+        largestSignatureSizes.merge(profileKey, signatureSizeInBytes, Math::max);
+        logClient.debug("Largest signature size for profile [{}] is now {} bytes - {}", profileKey, signatureSizeInBytes, trace.getId());
+        saveEstimates(trace);
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static String createProfileKey(SignatureMode signatureMode, String claimedIdentityName) {
+        return signatureMode.name() + "." + claimedIdentityName;
+    }
+
+    private void loadEstimates() {
+        if (estimatesFile == null || !estimatesFile.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(estimatesFile.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            logClient.warn("Failed to load the signature size estimates from [{}], starting without them", estimatesFile.getAbsolutePath(), e);
+            return;
+        }
+        for (String profileKey : properties.stringPropertyNames()) {
+            try {
+                largestSignatureSizes.put(profileKey, Integer.parseInt(properties.getProperty(profileKey).trim()));
+            } catch (NumberFormatException e) {
+                logClient.warn("Ignoring the invalid signature size estimate [{}] from [{}]", profileKey, estimatesFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private synchronized void saveEstimates(Trace trace) {
+        if (estimatesFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        largestSignatureSizes.forEach((profileKey, size) -> properties.setProperty(profileKey, String.valueOf(size)));
+        Path targetPath = estimatesFile.getAbsoluteFile().toPath();
+        Path tempPath = null;
+        try {
+            // write a new file and move it over the old one, so that a crash never leaves a truncated file behind
+            tempPath = Files.createTempFile(targetPath.getParent(), targetPath.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempPath)) {
+                properties.store(out, "Largest signature sizes (in bytes) received from AIS, per signature mode and claimed identity");
+            }
+            try {
+                Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logClient.warn("Failed to save the signature size estimates to [{}] - {}", targetPath, trace.getId(), e);
+            deleteTempFile(tempPath, trace);
+        }
+    }
+
+    private static void deleteTempFile(Path tempPath, Trace trace) {
+        if (tempPath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+            logClient.warn("Failed to delete the temporary file [{}] - {}", tempPath, trace.getId(), e);
+        }
+    }
+
+}
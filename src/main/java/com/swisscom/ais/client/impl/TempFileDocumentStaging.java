@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.Trace;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link DocumentStaging} that keeps the document in a temporary file, so that the heap usage of a document that waits for its
+ * signature does not depend on the size of the document. The document is written through a {@link FileChannel} and the
+ * signature is patched in place by memory mapping only the region of the /Contents placeholder. The temporary file is deleted
+ * when the staging is closed.
+ */
+public class TempFileDocumentStaging implements DocumentStaging {
+
+    private static final Logger logPdfProcessing = LoggerFactory.getLogger(Loggers.PDF_PROCESSING);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Trace trace;
+
+    public TempFileDocumentStaging(File directory, Trace trace) throws IOException {
+        this.file = directory == null ? Files.createTempFile("ais-client-", ".pdf")
+                                      : Files.createTempFile(directory.toPath(), "ais-client-", ".pdf");
+        this.trace = trace;
+        logPdfProcessing.debug("Staging the document in temporary file {} - {}", file, trace.getId());
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+    }
+
+    @Override
+    public void patch(long position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (position < 0 || position + bytes.length > channel.size()) {
+                throw new IOException("Cannot patch " + bytes.length + " bytes at position " + position +
+                                      " in a document of " + channel.size() + " bytes");
+            }
+            MappedByteBuffer mappedRegion = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes.length);
+            mappedRegion.put(bytes);
+            mappedRegion.force();
+        }
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return Files.size(file);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+    }
+
+    /**
+     * Copies the staged document to the given stream. When the stream is a file, the content is transferred between the two file
+     * channels (without going through the heap and, on most platforms, without leaving the kernel).
+     */
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        if (!(outputStream instanceof FileOutputStream)) {
+            Files.copy(file, outputStream);
+            return;
+        }
+        // the channel of the output stream is not closed here, as closing it would also close the stream
+        FileChannel targetChannel = ((FileOutputStream) outputStream).getChannel();
+        try (FileChannel sourceChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = sourceChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += sourceChannel.transferTo(position, size - position, targetChannel);
+            }
+        }
+    }
+
+    @Override
+    public PDDocument loadDocument(MemoryUsageSetting memoryUsageSetting) throws IOException {
+        return PDDocument.load(file.toFile(), memoryUsageSetting);
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // on some platforms the file cannot be deleted while a region of it is still mapped
+            logPdfProcessing.warn("Failed to delete the temporary file {}, it will be deleted on exit - {}", file, trace.getId(), e);
+            file.toFile().deleteOnExit();
+        }
+    }
+
+}
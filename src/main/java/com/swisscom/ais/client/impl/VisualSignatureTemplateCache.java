@@ -0,0 +1,269 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.impl;
+
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.Trace;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.util.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of the rendered visible signature templates. The template of a visible signature (the small PDF document with the
+ * signature field, its appearance stream, the icon and the font) only depends on the {@link com.swisscom.ais.client.model.VisibleSignatureDefinition},
+ * on the media box and on the rotation of the signed page. The only part that changes from one signature to the next is the text
+ * (reason and signing date). The cache therefore keeps the saved bytes of each template, rendered once with a fixed width text slot,
+ * and stamps the text of each signature into a copy of these bytes.
+ * <p>
+ * The text slot is a hex string of {@link #TEXT_SLOT_LENGTH} characters, padded with spaces. Texts that are longer, or that contain
+ * characters that the font cannot show, are not served by the cache (the template is then rendered as usual). When a TrueType font is
+ * configured for the visible signature, the cached templates embed the complete font instead of a subset of it, so that any text
+ * can be stamped in.
+ * <p>
+ * The cache is bounded to a number of templates; the least recently used template is evicted first.
+ */
+public class VisualSignatureTemplateCache {
+
+    public static final int TEXT_SLOT_LENGTH = 128;
+
+    private static final Logger logClient = LoggerFactory.getLogger(Loggers.CLIENT);
+
+    private final Map<TemplateKey, CachedTemplate> templates;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    public VisualSignatureTemplateCache(int maxTemplates) {
+        this.templates = new LinkedHashMap<TemplateKey, CachedTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TemplateKey, CachedTemplate> eldest) {
+                return size() > maxTemplates;
+            }
+        };
+    }
+
+    /**
+     * Returns the template for the given key, with the given text stamped in. The template is rendered (and cached) on first use.
+     *
+     * @param key      the key of the template
+     * @param text     the text of this signature
+     * @param renderer the code that renders the template with the text slot, when it is not cached yet
+     * @param trace    the trace of the signature
+     * @return the template, as a stream, or NULL if this text cannot be stamped into a cached template
+     */
+    public InputStream getTemplate(TemplateKey key, String text, TemplateRenderer renderer, Trace trace) throws IOException {
+        CachedTemplate template;
+        synchronized (templates) {
+            template = templates.get(key);
+        }
+        if (template == null) {
+            RenderedTemplate renderedTemplate = renderer.render(TEXT_SLOT_LENGTH);
+            template = CachedTemplate.create(renderedTemplate);
+            if (template == null) {
+                logClient.debug("The visible signature template cannot be cached (the text slot was not found) - {}", trace.getId());
+                return null;
+            }
+            synchronized (templates) {
+                templates.put(key, template);
+            }
+            logClient.debug("Cached a new visible signature template ({} bytes) - {}", template.content.length, trace.getId());
+        }
+        return template.stamp(text);
+    }
+
+    public int size() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Renders a template in which the text is shown with the hex string given by {@link TextEncoder#createSlot(int)}.
+     */
+    @FunctionalInterface
+    public interface TemplateRenderer {
+
+        RenderedTemplate render(int slotLength) throws IOException;
+
+    }
+
+    /**
+     * Encodes a text into the character codes of the font that shows it.
+     */
+    public interface TextEncoder {
+
+        /**
+         * @return the character codes of the text, or NULL if the font cannot show some of its characters
+         */
+        byte[] encode(String text);
+
+        /**
+         * @return the hex string (including the angle brackets) of a text made of slotLength spaces
+         */
+        default String createSlot(int slotLength) {
+            byte[] codes = encode(appendSpaces("", slotLength));
+            return codes == null ? null : "<" + Hex.getString(codes) + ">";
+        }
+
+    }
+
+    public static class RenderedTemplate {
+        private final byte[] content;
+        private final TextEncoder textEncoder;
+
+        public RenderedTemplate(byte[] content, TextEncoder textEncoder) {
+            this.content = content;
+            this.textEncoder = textEncoder;
+        }
+    }
+
+    /**
+     * Identifies a template: the files of the icon and of the font (with their last modification time, so that a changed file leads
+     * to a new template), the rectangle of the signature, the media box and the rotation of the page.
+     */
+    public static class TemplateKey {
+        private final String iconPath;
+        private final long iconLastModified;
+        private final String ttfFontPath;
+        private final long ttfFontLastModified;
+        private final float[] rectangle;
+        private final float[] mediaBox;
+        private final int rotation;
+
+        public TemplateKey(String iconPath, String ttfFontPath, PDRectangle rectangle, PDRectangle mediaBox, int rotation) {
+            this.iconPath = iconPath;
+            this.iconLastModified = iconPath == null ? 0 : new File(iconPath).lastModified();
+            this.ttfFontPath = ttfFontPath;
+            this.ttfFontLastModified = ttfFontPath == null ? 0 : new File(ttfFontPath).lastModified();
+            this.rectangle = toArray(rectangle);
+            this.mediaBox = toArray(mediaBox);
+            this.rotation = rotation;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof TemplateKey)) {
+                return false;
+            }
+            TemplateKey that = (TemplateKey) other;
+            return iconLastModified == that.iconLastModified &&
+                   ttfFontLastModified == that.ttfFontLastModified &&
+                   rotation == that.rotation &&
+                   Objects.equals(iconPath, that.iconPath) &&
+                   Objects.equals(ttfFontPath, that.ttfFontPath) &&
+                   Arrays.equals(rectangle, that.rectangle) &&
+                   Arrays.equals(mediaBox, that.mediaBox);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Objects.hash(iconPath, iconLastModified, ttfFontPath, ttfFontLastModified, rotation);
+            result = 31 * result + Arrays.hashCode(rectangle);
+            result = 31 * result + Arrays.hashCode(mediaBox);
+            return result;
+        }
+
+        private static float[] toArray(PDRectangle rectangle) {
+            return new float[]{rectangle.getLowerLeftX(), rectangle.getLowerLeftY(), rectangle.getUpperRightX(), rectangle.getUpperRightY()};
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static String appendSpaces(String text, int count) {
+        StringBuilder result = new StringBuilder(text.length() + count).append(text);
+        for (int index = 0; index < count; index++) {
+            result.append(' ');
+        }
+        return result.toString();
+    }
+
+    private static class CachedTemplate {
+        private final byte[] content;
+        private final int slotOffset;
+        private final int slotLength;
+        private final TextEncoder textEncoder;
+
+        private CachedTemplate(byte[] content, int slotOffset, int slotLength, TextEncoder textEncoder) {
+            this.content = content;
+            this.slotOffset = slotOffset;
+            this.slotLength = slotLength;
+            this.textEncoder = textEncoder;
+        }
+
+        private static CachedTemplate create(RenderedTemplate renderedTemplate) {
+            String slot = renderedTemplate.textEncoder.createSlot(TEXT_SLOT_LENGTH);
+            if (slot == null) {
+                return null;
+            }
+            byte[] slotBytes = slot.getBytes(StandardCharsets.US_ASCII);
+            int slotOffset = indexOf(renderedTemplate.content, slotBytes, 0);
+            // the slot must be found exactly once, otherwise stamping the text could damage the template
+            if (slotOffset < 0 || indexOf(renderedTemplate.content, slotBytes, slotOffset + 1) >= 0) {
+                return null;
+            }
+            return new CachedTemplate(renderedTemplate.content, slotOffset, slotBytes.length, renderedTemplate.textEncoder);
+        }
+
+        private InputStream stamp(String text) {
+            int characterCount = text.codePointCount(0, text.length());
+            if (characterCount > TEXT_SLOT_LENGTH) {
+                return null;
+            }
+            // pad the text to the width of the slot, so that the offsets in the template do not change
+            byte[] codes = textEncoder.encode(appendSpaces(text, TEXT_SLOT_LENGTH - characterCount));
+            if (codes == null) {
+                return null;
+            }
+            byte[] hexCodes = ("<" + Hex.getString(codes) + ">").getBytes(StandardCharsets.US_ASCII);
+            if (hexCodes.length != slotLength) {
+                return null;
+            }
+            byte[] stampedContent = content.clone();
+            System.arraycopy(hexCodes, 0, stampedContent, slotOffset, slotLength);
+            return new ByteArrayInputStream(stampedContent);
+        }
+
+        private static int indexOf(byte[] content, byte[] pattern, int fromIndex) {
+            outer:
+            for (int index = fromIndex; index <= content.length - pattern.length; index++) {
+                for (int patternIndex = 0; patternIndex < pattern.length; patternIndex++) {
+                    if (content[index + patternIndex] != pattern[patternIndex]) {
+                        continue outer;
+                    }
+                }
+                return index;
+            }
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.model;
+
+import java.util.Arrays;
+
+public enum DocumentStagingMode {
+
+    /**
+     * The prepared documents are kept on the heap until their signature is received.
+     */
+    MEMORY,
+
+    /**
+     * The prepared documents are kept in temporary files until their signature is received.
+     */
+    TEMP_FILE,
+
+    /**
+     * Documents that are larger than the configured threshold are kept in temporary files, the others on the heap.
+     */
+    AUTO;
+
+    public static DocumentStagingMode getByValue(String value) {
+        return Arrays
+            .stream(values())
+            .filter(item -> item.name().equalsIgnoreCase(value))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Invalid document staging mode value: " + value));
+    }
+
+}
@@ -15,18 +15,52 @@
  */
 package com.swisscom.ais.client.model;
 
+import com.swisscom.ais.client.RestClientException;
 import com.swisscom.ais.client.rest.model.DigestAlgorithm;
 import com.swisscom.ais.client.utils.Trace;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
 import static com.swisscom.ais.client.utils.Utils.valueNotEmpty;
 import static com.swisscom.ais.client.utils.Utils.valueNotNull;
 
+/**
+ * Describes one document to sign: where the client reads the original PDF from and where it writes the signed one to. Exactly one
+ * input (file name, {@link Path}, {@link SeekableByteChannel}, {@link ByteBuffer} or {@link InputStream}) and exactly one output
+ * (file name, {@link Path}, {@link WritableByteChannel} or {@link OutputStream}) must be set. The inputs that allow random access
+ * (files, paths, channels and buffers) let PDFBox read only the parts of the document that it needs; an {@link InputStream} is first
+ * copied to memory. The streams and channels given to a handle are closed by the client once it is done with them.
+ */
 public class PdfHandle {
 
     private String inputFromFile;
 
+    private Path inputFromPath;
+
+    private SeekableByteChannel inputFromChannel;
+
+    private ByteBuffer inputFromBuffer;
+
+    private InputStream inputFromStream;
+
     private String outputToFile;
 
+    private Path outputToPath;
+
+    private WritableByteChannel outputToChannel;
+
+    private OutputStream outputToStream;
+
     private DigestAlgorithm digestAlgorithm = DigestAlgorithm.SHA512;
 
     private VisibleSignatureDefinition visibleSignatureDefinition = null;
@@ -47,6 +81,62 @@ public class PdfHandle {
         this.outputToFile = outputToFile;
     }
 
+    public Path getInputFromPath() {
+        return inputFromPath;
+    }
+
+    public void setInputFromPath(Path inputFromPath) {
+        this.inputFromPath = inputFromPath;
+    }
+
+    public SeekableByteChannel getInputFromChannel() {
+        return inputFromChannel;
+    }
+
+    public void setInputFromChannel(SeekableByteChannel inputFromChannel) {
+        this.inputFromChannel = inputFromChannel;
+    }
+
+    public ByteBuffer getInputFromBuffer() {
+        return inputFromBuffer;
+    }
+
+    public void setInputFromBuffer(ByteBuffer inputFromBuffer) {
+        this.inputFromBuffer = inputFromBuffer;
+    }
+
+    public InputStream getInputFromStream() {
+        return inputFromStream;
+    }
+
+    public void setInputFromStream(InputStream inputFromStream) {
+        this.inputFromStream = inputFromStream;
+    }
+
+    public Path getOutputToPath() {
+        return outputToPath;
+    }
+
+    public void setOutputToPath(Path outputToPath) {
+        this.outputToPath = outputToPath;
+    }
+
+    public WritableByteChannel getOutputToChannel() {
+        return outputToChannel;
+    }
+
+    public void setOutputToChannel(WritableByteChannel outputToChannel) {
+        this.outputToChannel = outputToChannel;
+    }
+
+    public OutputStream getOutputToStream() {
+        return outputToStream;
+    }
+
+    public void setOutputToStream(OutputStream outputToStream) {
+        this.outputToStream = outputToStream;
+    }
+
     public DigestAlgorithm getDigestAlgorithm() {
         return digestAlgorithm;
     }
@@ -63,10 +153,76 @@ public class PdfHandle {
         this.visibleSignatureDefinition = definition;
     }
 
+    /**
+     * @return a human readable name of the input of this handle, for logging and error messages
+     */
+    public String getInputName() {
+        if (inputFromFile != null) {
+            return inputFromFile;
+        }
+        if (inputFromPath != null) {
+            return inputFromPath.toString();
+        }
+        return inputFromBuffer != null ? "<buffer>" : inputFromChannel != null ? "<channel>" : "<stream>";
+    }
+
+    /**
+     * @return a human readable name of the output of this handle, for logging and error messages
+     */
+    public String getOutputName() {
+        if (outputToFile != null) {
+            return outputToFile;
+        }
+        if (outputToPath != null) {
+            return outputToPath.toString();
+        }
+        return outputToChannel != null ? "<channel>" : "<stream>";
+    }
+
+    /**
+     * @return the size of the input document, in bytes, or -1 if it cannot be known without reading the input
+     */
+    public long getInputSize() {
+        try {
+            if (inputFromFile != null) {
+                return new File(inputFromFile).length();
+            }
+            if (inputFromPath != null) {
+                return Files.size(inputFromPath);
+            }
+            if (inputFromChannel != null) {
+                return inputFromChannel.size();
+            }
+            if (inputFromBuffer != null) {
+                return inputFromBuffer.remaining();
+            }
+        } catch (IOException ignored) {
+            // the size is only a hint; the actual read of the input reports the error
+        }
+        return -1;
+    }
+
     public void validateYourself(Trace trace) {
-        valueNotEmpty(inputFromFile, "The inputFromFile cannot be null or empty", trace);
-        valueNotEmpty(outputToFile, "The outputToFile cannot be null or empty", trace);
+        long inputsCount = countSet(inputFromFile, inputFromPath, inputFromChannel, inputFromBuffer, inputFromStream);
+        long outputsCount = countSet(outputToFile, outputToPath, outputToChannel, outputToStream);
+        if (inputsCount == 0) {
+            valueNotEmpty(inputFromFile, "The inputFromFile cannot be null or empty", trace);
+        }
+        if (outputsCount == 0) {
+            valueNotEmpty(outputToFile, "The outputToFile cannot be null or empty", trace);
+        }
+        if (inputsCount > 1 || outputsCount > 1) {
+            String errorMessage = "A PDF handle must have exactly one input and one output";
+            throw new RestClientException(trace == null ? errorMessage : errorMessage + " - " + trace.getId());
+        }
         valueNotNull(digestAlgorithm, "The digest algorithm for a PDF handle cannot be NULL", trace);
     }
 
+    private static long countSet(Object... values) {
+        return Arrays.stream(values)
+            .filter(Objects::nonNull)
+            .filter(value -> !(value instanceof String) || ((String) value).trim().length() > 0)
+            .count();
+    }
+
 }
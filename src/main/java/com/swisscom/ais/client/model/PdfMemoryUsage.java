@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.model;
+
+import java.util.Arrays;
+
+public enum PdfMemoryUsage {
+
+    /**
+     * The content of the PDF documents is kept on the heap while they are processed.
+     */
+    MEMORY,
+
+    /**
+     * The content of the PDF documents is buffered in temporary files while they are processed.
+     */
+    TEMP_FILE,
+
+    /**
+     * The content of each PDF document is kept on the heap up to the configured maximum, the rest is buffered in temporary files.
+     */
+    MIXED;
+
+    public static PdfMemoryUsage getByValue(String value) {
+        return Arrays
+            .stream(values())
+            .filter(item -> item.name().equalsIgnoreCase(value))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Invalid PDF memory usage value: " + value));
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.swisscom.ais.client.rest.model.signresp.AISSignResponse;
+import com.swisscom.ais.client.rest.model.signresp.Base64Signature;
+import com.swisscom.ais.client.rest.model.signresp.Base64Signature__1;
+import com.swisscom.ais.client.rest.model.signresp.OptionalOutputs;
+import com.swisscom.ais.client.rest.model.signresp.Other;
+import com.swisscom.ais.client.rest.model.signresp.Result;
+import com.swisscom.ais.client.rest.model.signresp.ResultMessage;
+import com.swisscom.ais.client.rest.model.signresp.ScCRLs;
+import com.swisscom.ais.client.rest.model.signresp.ScExtendedSignatureObject;
+import com.swisscom.ais.client.rest.model.signresp.ScOCSPs;
+import com.swisscom.ais.client.rest.model.signresp.ScResult;
+import com.swisscom.ais.client.rest.model.signresp.ScRevocationInformation;
+import com.swisscom.ais.client.rest.model.signresp.ScSignatureObjects;
+import com.swisscom.ais.client.rest.model.signresp.ScStepUpAuthorisationInfo;
+import com.swisscom.ais.client.rest.model.signresp.SignResponse;
+import com.swisscom.ais.client.rest.model.signresp.SignatureObject;
+import com.swisscom.ais.client.rest.model.signresp.Timestamp;
+import com.swisscom.ais.client.rest.model.signresp.Timestamp__1;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming deserializer for the AIS sign responses (the same type is returned for the Pending requests). The response is read
+ * token by token, following the structure of gen-material/AIS_SignResponse.json, and only the fields that the client uses are
+ * set on the (generated) model:
+ * <ul>
+ *     <li>the request ID, the profile and the result (major, minor, message)</li>
+ *     <li>the async response ID, the AP transaction ID and the Step Up serial number and consent URL</li>
+ *     <li>the CRLs and OCSP responses</li>
+ *     <li>the signature or timestamp (single document) and the extended signature objects (multiple documents)</li>
+ * </ul>
+ * Everything else (e.g. the Mobile ID fault details or the signature types) is skipped without being parsed into objects. Like
+ * the mapper that it is registered with, it ignores unknown fields and accepts single values in place of arrays.
+ */
+class AISSignResponseDeserializer extends StdDeserializer<AISSignResponse> {
+
+    AISSignResponseDeserializer() {
+        super(AISSignResponse.class);
+    }
+
+    @Override
+    public AISSignResponse deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        AISSignResponse response = new AISSignResponse();
+        readObject(parser, context, AISSignResponse.class, fieldName -> {
+            if ("SignResponse".equals(fieldName)) {
+                response.setSignResponse(readSignResponse(parser, context));
+            } else {
+                parser.skipChildren();
+            }
+        });
+        return response;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static SignResponse readSignResponse(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        SignResponse signResponse = new SignResponse();
+        readObject(parser, context, SignResponse.class, fieldName -> {
+            switch (fieldName) {
+                case "@RequestID":
+                    signResponse.setRequestID(readString(parser, context));
+                    break;
+                case "@Profile":
+                    signResponse.setProfile(readString(parser, context));
+                    break;
+                case "Result":
+                    signResponse.setResult(readResult(parser, context));
+                    break;
+                case "OptionalOutputs":
+                    signResponse.setOptionalOutputs(readOptionalOutputs(parser, context));
+                    break;
+                case "SignatureObject":
+                    signResponse.setSignatureObject(readSignatureObject(parser, context));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        });
+        return signResponse;
+    }
+
+    private static Result readResult(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        Result result = new Result();
+        readObject(parser, context, Result.class, fieldName -> {
+            switch (fieldName) {
+                case "ResultMajor":
+                    result.setResultMajor(readString(parser, context));
+                    break;
+                case "ResultMinor":
+                    result.setResultMinor(readString(parser, context));
+                    break;
+                case "ResultMessage":
+                    result.setResultMessage(readResultMessage(parser, context));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        });
+        return result;
+    }
+
+    private static ResultMessage readResultMessage(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        ResultMessage resultMessage = new ResultMessage();
+        readObject(parser, context, ResultMessage.class, fieldName -> {
+            switch (fieldName) {
+                case "$":
+                    resultMessage.set$(readString(parser, context));
+                    break;
+                case "@xml.lang":
+                    resultMessage.setXmlLang(readString(parser, context));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        });
+        return resultMessage;
+    }
+
+    private static OptionalOutputs readOptionalOutputs(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        OptionalOutputs optionalOutputs = new OptionalOutputs();
+        readObject(parser, context, OptionalOutputs.class, fieldName -> {
+            switch (fieldName) {
+                case "async.ResponseID":
+                    optionalOutputs.setAsyncResponseID(readString(parser, context));
+                    break;
+                case "sc.APTransID":
+                    optionalOutputs.setScAPTransID(readString(parser, context));
+                    break;
+                case "sc.StepUpAuthorisationInfo":
+                    optionalOutputs.setScStepUpAuthorisationInfo(readStepUpAuthorisationInfo(parser, context));
+                    break;
+                case "sc.RevocationInformation":
+                    optionalOutputs.setScRevocationInformation(readRevocationInformation(parser, context));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        });
+        return optionalOutputs;
+    }
+
+    private static ScStepUpAuthorisationInfo readStepUpAuthorisationInfo(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        ScStepUpAuthorisationInfo stepUpInfo = new ScStepUpAuthorisationInfo();
+        readObject(parser, context, ScStepUpAuthorisationInfo.class, fieldName -> {
+            if ("sc.Result".equals(fieldName)) {
+                stepUpInfo.setScResult(readStepUpResult(parser, context));
+            } else {
+                parser.skipChildren();
+            }
+        });
+        return stepUpInfo;
+    }
+
+    private static ScResult readStepUpResult(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        ScResult scResult = new ScResult();
+        readObject(parser, context, ScResult.class, fieldName -> {
+            switch (fieldName) {
+                case "sc.SerialNumber":
+                    scResult.setScSerialNumber(readString(parser, context));
+                    break;
+                case "sc.ConsentURL":
+                    scResult.setScConsentURL(readString(parser, context));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        });
+        return scResult;
+    }
+
+    private static ScRevocationInformation readRevocationInformation(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        ScRevocationInformation revocationInformation = new ScRevocationInformation();
+        readObject(parser, context, ScRevocationInformation.class, fieldName -> {
+            switch (fieldName) {
+                case "sc.CRLs":
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        revocationInformation.setScCRLs(new ScCRLs().withScCRL(readStringListField(parser, context, ScCRLs.class, "sc.CRL")));
+                    }
+                    break;
+                case "sc.OCSPs":
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        revocationInformation.setScOCSPs(new ScOCSPs().withScOCSP(readStringListField(parser, context, ScOCSPs.class, "sc.OCSP")));
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        });
+        return revocationInformation;
+    }
+
+    private static SignatureObject readSignatureObject(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        SignatureObject signatureObject = new SignatureObject();
+        readObject(parser, context, SignatureObject.class, fieldName -> {
+            switch (fieldName) {
+                case "Base64Signature":
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        signatureObject.setBase64Signature(new Base64Signature().with$(readDollarValue(parser, context, Base64Signature.class)));
+                    }
+                    break;
+                case "Timestamp":
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        signatureObject.setTimestamp(new Timestamp().withRFC3161TimeStampToken(readTimestampToken(parser, context, Timestamp.class)));
+                    }
+                    break;
+                case "Other":
+                    signatureObject.setOther(readOther(parser, context));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        });
+        return signatureObject;
+    }
+
+    private static Other readOther(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        Other other = new Other();
+        readObject(parser, context, Other.class, fieldName -> {
+            if ("sc.SignatureObjects".equals(fieldName)) {
+                other.setScSignatureObjects(readSignatureObjects(parser, context));
+            } else {
+                parser.skipChildren();
+            }
+        });
+        return other;
+    }
+
+    private static ScSignatureObjects readSignatureObjects(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        ScSignatureObjects signatureObjects = new ScSignatureObjects();
+        readObject(parser, context, ScSignatureObjects.class, fieldName -> {
+            if ("sc.ExtendedSignatureObject".equals(fieldName)) {
+                signatureObjects.setScExtendedSignatureObject(readList(parser, () -> readExtendedSignatureObject(parser, context)));
+            } else {
+                parser.skipChildren();
+            }
+        });
+        return signatureObjects;
+    }
+
+    private static ScExtendedSignatureObject readExtendedSignatureObject(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        ScExtendedSignatureObject extendedSignatureObject = new ScExtendedSignatureObject();
+        readObject(parser, context, ScExtendedSignatureObject.class, fieldName -> {
+            switch (fieldName) {
+                case "@WhichDocument":
+                    extendedSignatureObject.setWhichDocument(readString(parser, context));
+                    break;
+                case "Base64Signature":
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        extendedSignatureObject.setBase64Signature(new Base64Signature__1().with$(readDollarValue(parser, context, Base64Signature__1.class)));
+                    }
+                    break;
+                case "Timestamp":
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        extendedSignatureObject.setTimestamp(new Timestamp__1().withRFC3161TimeStampToken(readTimestampToken(parser, context, Timestamp__1.class)));
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        });
+        return extendedSignatureObject;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the "$" field of a Base64Signature object. The object itself is built by the caller, as its two variants
+     * (Base64Signature and Base64Signature__1) have no common type.
+     */
+    private static String readDollarValue(JsonParser parser, DeserializationContext context, Class<?> objectType) throws IOException {
+        return readSingleStringField(parser, context, objectType, "$");
+    }
+
+    private static String readTimestampToken(JsonParser parser, DeserializationContext context, Class<?> objectType) throws IOException {
+        return readSingleStringField(parser, context, objectType, "RFC3161TimeStampToken");
+    }
+
+    private static String readSingleStringField(JsonParser parser, DeserializationContext context, Class<?> objectType,
+                                                String wantedFieldName) throws IOException {
+        String[] value = new String[1];
+        readObject(parser, context, objectType, fieldName -> {
+            if (wantedFieldName.equals(fieldName)) {
+                value[0] = readString(parser, context);
+            } else {
+                parser.skipChildren();
+            }
+        });
+        return value[0];
+    }
+
+    private static List<String> readStringListField(JsonParser parser, DeserializationContext context, Class<?> objectType,
+                                                    String wantedFieldName) throws IOException {
+        List<List<String>> value = new ArrayList<>(1);
+        value.add(new ArrayList<>());
+        readObject(parser, context, objectType, fieldName -> {
+            if (wantedFieldName.equals(fieldName)) {
+                value.set(0, readList(parser, () -> readString(parser, context)));
+            } else {
+                parser.skipChildren();
+            }
+        });
+        return value.get(0);
+    }
+
+    /**
+     * Reads the fields of the object that starts at the current token. The field reader is called with the parser positioned on
+     * the field's value and must leave it on the last token of that value. When done, the parser is on the END_OBJECT token.
+     */
+    private static void readObject(JsonParser parser, DeserializationContext context, Class<?> objectType, FieldReader fieldReader)
+        throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = parser.nextToken();
+        } else if (token != JsonToken.FIELD_NAME) {
+            context.handleUnexpectedToken(objectType, parser);
+            return;
+        }
+        while (token == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            fieldReader.readField(fieldName);
+            token = parser.nextToken();
+        }
+    }
+
+    private static <T> List<T> readList(JsonParser parser, ValueReader<T> valueReader) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        List<T> result = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            // single value in place of an array
+            result.add(valueReader.readValue());
+            return result;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            result.add(valueReader.readValue());
+        }
+        return result;
+    }
+
+    private static String readString(JsonParser parser, DeserializationContext context) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != null && token.isScalarValue()) {
+            return parser.getValueAsString();
+        }
+        return (String) context.handleUnexpectedToken(String.class, parser);
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    @FunctionalInterface
+    private interface FieldReader {
+        void readField(String fieldName) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ValueReader<T> {
+        T readValue() throws IOException;
+    }
+
+}
@@ -1,13 +1,15 @@
 package com.swisscom.ais.client.rest;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.swisscom.ais.client.RestClientException;
 import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.NamedThreadFactory;
 import com.swisscom.ais.client.utils.Trace;
 import com.swisscom.ais.client.utils.Utils;
+import org.apache.hc.client5.http.ConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.HttpRequestRetryStrategy;
+import org.apache.hc.client5.http.HttpRoute;
 import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.CredentialsProvider;
 import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
 import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
@@ -15,14 +17,25 @@ import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
+import org.apache.hc.client5.http.socket.PlainConnectionSocketFactory;
 import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
 import org.apache.hc.client5.http.ssl.TrustSelfSignedStrategy;
 import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.config.Registry;
+import org.apache.hc.core5.http.config.RegistryBuilder;
 import org.apache.hc.core5.net.URIAuthority;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
 import org.apache.hc.core5.ssl.PrivateKeyStrategy;
 import org.apache.hc.core5.ssl.SSLContextBuilder;
 import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openssl.PEMDecryptorProvider;
@@ -37,16 +50,24 @@ import org.bouncycastle.pkcs.jcajce.JcePKCSPBEInputDecryptorProviderBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.Security;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.swisscom.ais.client.utils.Utils.closeResource;
 
@@ -54,24 +75,166 @@ public abstract class AbstractRestClientImpl {
 
     protected static final Logger logClient = LoggerFactory.getLogger(Loggers.CLIENT);
     protected static final Logger logProtocol = LoggerFactory.getLogger(Loggers.CLIENT_PROTOCOL);
-    protected static final Logger logReqResp = LoggerFactory.getLogger(Loggers.REQUEST_RESPONSE);
-    protected static final Logger logFullReqResp = LoggerFactory.getLogger(Loggers.FULL_REQUEST_RESPONSE);
+    protected static final RequestResponseCapture requestResponseCapture = new RequestResponseCapture();
 
     protected RestClientConfiguration config;
-    protected ObjectMapper jacksonMapper;
+    protected JsonCodec jsonCodec;
     protected CloseableHttpClient httpClient;
+    protected ConnectionPoolMonitor connectionPoolMonitor;
+    protected HedgingPolicy hedgingPolicy;
+    protected RequestConfig hedgedAttemptRequestConfig;
+    protected Thread warmUpThread;
 
     // ----------------------------------------------------------------------------------------------------
 
     public void setConfiguration(RestClientConfiguration config) {
         this.config = config;
         Security.addProvider(new BouncyCastleProvider());
-        jacksonMapper = new ObjectMapper();
-        jacksonMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        jacksonMapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
-        jacksonMapper.setSerializationInclusion(JsonInclude.Include.USE_DEFAULTS);
+        jsonCodec = config.isStreamingResponseParser() ? JsonCodec.getStreamingInstance() : JsonCodec.getInstance();
+        if (config.isHedging()) {
+            hedgingPolicy = new HedgingPolicy(config);
+            hedgedAttemptRequestConfig = produceTheHedgedAttemptRequestConfig(config);
+        }
+
+        setUpHttpClient(config, produceTheSSLContext(config));
+        if (config.getWarmUpConnections() > 0) {
+            startWarmUp(config.getWarmUpConnections());
+        }
+    }
+
+    /**
+     * Runs the warm-up in the background, so that setting the configuration does not wait for the connections to be opened. The
+     * first signatures can start right away and simply open their own connections if the warm-up is not done yet.
+     */
+    protected void startWarmUp(int connectionCount) {
+        Runnable warmUpTask = () -> warmUp(connectionCount, new Trace("warm-up"));
+        warmUpThread = new NamedThreadFactory("ais-client-warm-up").newThread(warmUpTask);
+        warmUpThread.start();
+    }
+
+    protected void stopWarmUp() {
+        if (warmUpThread != null) {
+            warmUpThread.interrupt();
+        }
+    }
+
+    /**
+     * Opens up to the given number of connections to the AIS service and leaves them in the pool. This client does not
+     * support warming up and opens no connection; see the subclasses.
+     *
+     * @return the number of connections that were opened
+     */
+    public int warmUp(int connectionCount, Trace trace) {
+        return 0;
+    }
+
+    /**
+     * @return the number of connections that a warm-up can open, given the pool limits
+     */
+    protected int limitWarmUpConnections(int connectionCount) {
+        return Math.max(0, Math.min(connectionCount, Math.min(config.getMaxConnectionsPerRoute(), config.getMaxTotalConnections())));
+    }
+
+    /**
+     * Creates the HTTP client used by this REST client. By default, this is the classic (blocking) HTTP client. Subclasses can
+     * override this to set up a different HTTP client, using the same TLS/SSL context.
+     */
+    protected void setUpHttpClient(RestClientConfiguration config, SSLContext sslContext) {
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register(URIScheme.HTTP.id, PlainConnectionSocketFactory.getSocketFactory())
+                .register(URIScheme.HTTPS.id, new SSLConnectionSocketFactory(sslContext))
+                .build();
+        ConnectionPoolMonitor poolMonitor = new ConnectionPoolMonitor(config);
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                socketFactoryRegistry, PoolConcurrencyPolicy.STRICT, PoolReusePolicy.LIFO, produceTheConnectionTimeToLive(config)) {
+            @Override
+            public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+                LeaseRequest leaseRequest = super.lease(id, route, requestTimeout, state);
+                long leaseStart = System.nanoTime();
+                return new LeaseRequest() {
+                    @Override
+                    public ConnectionEndpoint get(Timeout timeout) throws InterruptedException, ExecutionException, TimeoutException {
+                        try {
+                            return leaseRequest.get(timeout);
+                        } finally {
+                            poolMonitor.recordLeaseWait(route, System.nanoTime() - leaseStart);
+                        }
+                    }
+
+                    @Override
+                    public boolean cancel() {
+                        return leaseRequest.cancel();
+                    }
+                };
+            }
+        };
+        connectionManager.setMaxTotal(config.getMaxTotalConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        connectionManager.setValidateAfterInactivity(TimeValue.ofMilliseconds(config.getValidateAfterInactivityInMillis()));
+        startConnectionPoolMonitor(poolMonitor, connectionManager, config);
+
+        setUpRestClient(config, connectionManager, produceTheRequestConfig(config));
+    }
+
+    /**
+     * @return the maximum lifetime of the pooled connections (a negative value for no limit)
+     */
+    protected TimeValue produceTheConnectionTimeToLive(RestClientConfiguration config) {
+        return config.getConnectionTimeToLiveInSec() > 0 ? TimeValue.ofSeconds(config.getConnectionTimeToLiveInSec())
+                                                         : TimeValue.NEG_ONE_MILLISECOND;
+    }
+
+    protected ConnectionKeepAliveStrategy produceTheKeepAliveStrategy(RestClientConfiguration config) {
+        return new ServerKeepAliveStrategy(config);
+    }
+
+    protected HttpRequestRetryStrategy produceTheRetryStrategy(RestClientConfiguration config) {
+        return new ConfigurableRetryStrategy(config);
+    }
+
+    /**
+     * Turns on or off the automatic retries of the HTTP client (see {@link RestClientConfiguration#isAutomaticRetries()}).
+     */
+    public void setAutomaticRetries(boolean automaticRetries) {
+        if (config != null) {
+            config.setAutomaticRetries(automaticRetries);
+        }
+    }
+
+    /**
+     * @return whether the given request is sent with hedging (see {@link HedgingPolicy})
+     */
+    protected boolean isHedged(Object request) {
+        return hedgingPolicy != null && HedgingPolicy.isIdempotent(request);
+    }
+
+    protected void closeHedgingPolicy() {
+        if (hedgingPolicy != null) {
+            hedgingPolicy.close();
+        }
+    }
+
+    protected void startConnectionPoolMonitor(ConnectionPoolMonitor poolMonitor, ConnPoolControl<HttpRoute> pool,
+                                              RestClientConfiguration config) {
+        poolMonitor.start(pool, config);
+        connectionPoolMonitor = poolMonitor;
+    }
+
+    protected void closeConnectionPoolMonitor() {
+        if (connectionPoolMonitor != null) {
+            connectionPoolMonitor.close();
+        }
+    }
+
+    /**
+     * @return the current state of the HTTP connection pool (connections in use, requests waiting for a connection, idle
+     * connections, the current limits and the time spent waiting for connections) or null if the client is not configured yet
+     */
+    public ConnectionPoolStatistics getConnectionPoolStatistics() {
+        return connectionPoolMonitor == null ? null : connectionPoolMonitor.getStatistics();
+    }
 
-        SSLConnectionSocketFactory sslConnectionSocketFactory;
+    protected SSLContext produceTheSSLContext(RestClientConfiguration config) {
         try {
             SSLContextBuilder sslContextBuilder = SSLContexts.custom()
                     .loadKeyMaterial(produceTheKeyStore(config),
@@ -82,67 +245,90 @@ public abstract class AbstractRestClientImpl {
             if (config.isSSLCheckDisabled()) {
                 sslContextBuilder.loadTrustMaterial(new TrustSelfSignedStrategy());
             }
-            sslConnectionSocketFactory = new SSLConnectionSocketFactory(sslContextBuilder.build());
+            SSLContext sslContext = sslContextBuilder.build();
+            configureTlsSessions(sslContext, config);
+            return sslContext;
         } catch (Exception e) {
             throw new RestClientException("Failed to configure the TLS/SSL connection factory for the AIS client", e);
         }
+    }
 
-        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
-                .setMaxConnTotal(config.getMaxTotalConnections())
-                .setMaxConnPerRoute(config.getMaxConnectionsPerRoute())
-                .setSSLSocketFactory(sslConnectionSocketFactory)
-                .build();
-        RequestConfig httpClientRequestConfig = RequestConfig.custom()
+    /**
+     * Configures the resumption of the TLS sessions, so that the new connections to AIS can skip the full (mutual) handshake.
+     */
+    protected void configureTlsSessions(SSLContext sslContext, RestClientConfiguration config) {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            if (config.getTlsSessionCacheSize() > 0) {
+                sessionContext.setSessionCacheSize(config.getTlsSessionCacheSize());
+            }
+            if (config.getTlsSessionTimeoutInSec() > 0) {
+                sessionContext.setSessionTimeout(config.getTlsSessionTimeoutInSec());
+            }
+        }
+    }
+
+    protected RequestConfig produceTheRequestConfig(RestClientConfiguration config) {
+        return RequestConfig.custom()
                 .setConnectTimeout(config.getConnectionTimeoutInSec(), TimeUnit.SECONDS)
                 .setResponseTimeout(config.getResponseTimeoutInSec(), TimeUnit.SECONDS)
                 .build();
+    }
 
-        setUpRestClient(config, connectionManager, httpClientRequestConfig);
+    /**
+     * @return the request configuration for each attempt of a hedged operation, or null if the attempts use the default one
+     */
+    protected RequestConfig produceTheHedgedAttemptRequestConfig(RestClientConfiguration config) {
+        if (config.getHedgingAttemptTimeoutInMillis() == 0) {
+            return null;
+        }
+        return RequestConfig.copy(produceTheRequestConfig(config))
+                .setResponseTimeout(config.getHedgingAttemptTimeoutInMillis(), TimeUnit.MILLISECONDS)
+                .build();
     }
 
     private void setUpRestClient(RestClientConfiguration config, PoolingHttpClientConnectionManager connectionManager, RequestConfig httpClientRequestConfig) {
         HttpClientBuilder httpClientBuilder = HttpClients.custom();
 
         if (config.isEnableProxy()) {
-            enableProxy(httpClientBuilder);
+            httpClientBuilder.setProxy(produceTheProxy());
+            if (config.isEnableProxyAuth()) {
+                httpClientBuilder.setDefaultCredentialsProvider(produceTheProxyCredentialsProvider());
+            }
+        }
+        if (config.getIdleConnectionTimeoutInSec() > 0) {
+            httpClientBuilder.evictIdleConnections(TimeValue.ofSeconds(config.getIdleConnectionTimeoutInSec()));
         }
 
         this.httpClient = httpClientBuilder
                 .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(produceTheKeepAliveStrategy(config))
+                .evictExpiredConnections()
+                .setRetryStrategy(produceTheRetryStrategy(config))
                 .setDefaultRequestConfig(httpClientRequestConfig)
                 .build();
     }
 
-    private void enableProxy(HttpClientBuilder httpClientBuilder) {
-
+    protected HttpHost produceTheProxy() {
         String proxyHost = this.getProxyHost();
         int port = this.getProxyPortNumber();
 
-        setRestClientProxy(httpClientBuilder, proxyHost, port);
-
-        if (config.isEnableProxyAuth()) {
-            enableProxyAuthentication(httpClientBuilder, proxyHost, port);
+        if (config.getProxyUsername() != null && config.getProxyUsername().length() > 0) {
+            return new HttpHost(new URIAuthority(config.getProxyUsername(), proxyHost, port));
+        } else {
+            return new HttpHost(new URIAuthority(proxyHost, port));
         }
     }
 
-    private void enableProxyAuthentication(HttpClientBuilder httpClientBuilder, String proxyHost, int port) {
+    protected CredentialsProvider produceTheProxyCredentialsProvider() {
         BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
         String username = this.getProxyUserName();
         char[] password = this.getProxyPassword();
 
-        AuthScope authScope = new AuthScope(proxyHost, port);
+        AuthScope authScope = new AuthScope(this.getProxyHost(), this.getProxyPortNumber());
         UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(username, password);
         credentialsProvider.setCredentials(authScope, credentials);
-
-        httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-    }
-
-    private void setRestClientProxy(HttpClientBuilder httpClientBuilder, String proxyHost, int port) {
-        if (config.getProxyUsername() != null && config.getProxyUsername().length() > 0) {
-            httpClientBuilder.setProxy(new HttpHost(new URIAuthority(config.getProxyUsername(), proxyHost, port)));
-        } else {
-            httpClientBuilder.setProxy(new HttpHost(new URIAuthority(proxyHost, port)));
-        }
+        return credentialsProvider;
     }
 
     private String getProxyHost() {
@@ -178,15 +364,78 @@ public abstract class AbstractRestClientImpl {
 
     }
 
-    protected void logResponse(String responseJson, String operationName, Trace trace, String SimpleName) {
-        if (logReqResp.isInfoEnabled()) {
-            String strippedResponse = Utils.stripInnerLargeBase64Content(responseJson, '"', '"');
-            logReqResp.info("{}: Received JSON content: {} - {}", operationName, strippedResponse, trace.getId());
+    /**
+     * @return whether any of the loggers that show the request and response bodies is enabled; when none is, the bodies are never
+     * rendered as text
+     */
+    protected boolean isBodyLoggingEnabled() {
+        return requestResponseCapture.isEnabled();
+    }
+
+    protected byte[] serializeRequest(Object requestObject, String operationName, Trace trace) {
+        logProtocol.debug("{}: Serializing object of type {} to JSON - {}",
+                operationName, requestObject.getClass().getSimpleName(), trace.getId());
+        try {
+            return jsonCodec.writeValueAsBytes(requestObject);
+        } catch (IOException e) {
+            throw new RestClientException("Failed to serialize request object to JSON, for operation " +
+                    operationName + " - " + trace.getId(), e);
+        }
+    }
+
+    protected void logRequest(byte[] requestJson, String operationName, String serviceUrl, Trace trace) {
+        requestResponseCapture.captureRequest(operationName, serviceUrl, requestJson, trace);
+    }
+
+    protected void logResponse(byte[] responseJson, String operationName, Trace trace) {
+        requestResponseCapture.captureResponse(operationName, responseJson, trace);
+    }
+
+    protected <TResp> TResp deserializeResponse(byte[] responseJson, Class<TResp> responseClass, String operationName, Trace trace) {
+        logResponse(responseJson, operationName, trace);
+        logProtocol.debug("{}: Deserializing JSON to object of type {} - {}", operationName, responseClass.getSimpleName(), trace.getId());
+        try {
+            return jsonCodec.readValue(responseJson, responseClass);
+        } catch (IOException e) {
+            throw new RestClientException("Failed to deserialize JSON content to object of type " +
+                    responseClass.getSimpleName() + " for operation " +
+                    operationName + " - " +
+                    trace.getId(), e);
+        }
+    }
+
+    /**
+     * Parses the response directly from the HTTP connection's stream. The stream is not closed (the caller consumes the rest of
+     * the entity, so that the connection can be reused).
+     */
+    protected <TResp> TResp deserializeResponse(InputStream responseJson, Class<TResp> responseClass, String operationName, Trace trace) {
+        logProtocol.debug("{}: Deserializing JSON to object of type {} - {}", operationName, responseClass.getSimpleName(), trace.getId());
+        try {
+            return jsonCodec.readValue(responseJson, responseClass);
+        } catch (IOException e) {
+            throw new RestClientException("Failed to deserialize JSON content to object of type " +
+                    responseClass.getSimpleName() + " for operation " +
+                    operationName + " - " +
+                    trace.getId(), e);
         }
-        if (logFullReqResp.isInfoEnabled()) {
-            logFullReqResp.info("{}: Received JSON content: {} - {}", operationName, responseJson, trace.getId());
+    }
+
+    /**
+     * Waits for the result of an asynchronous exchange, turning its failure into a {@link RestClientException}.
+     */
+    protected static <T> T waitFor(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new RestClientException("Interrupted while waiting for the AIS response", e);
+        } catch (ExecutionException | CompletionException e) {
+            if (e.getCause() instanceof RestClientException) {
+                throw (RestClientException) e.getCause();
+            }
+            throw new RestClientException("Communication failure", e.getCause());
         }
-        logProtocol.debug("{}: Deserializing JSON to object of type {} - {}", operationName, SimpleName, trace.getId());
     }
 
     private KeyStore produceTheKeyStore(RestClientConfiguration config) {
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import com.swisscom.ais.client.rest.model.pendingreq.AISPendingRequest;
+import com.swisscom.ais.client.rest.model.signreq.AISSignRequest;
+import com.swisscom.ais.client.rest.model.signresp.AISSignResponse;
+import com.swisscom.ais.client.utils.Trace;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link RestClient} that can also send its requests without blocking the calling thread. The returned futures are completed
+ * by the HTTP client's I/O threads, so callers should not run long operations directly in the dependent stages.
+ */
+public interface AsyncRestClient extends RestClient {
+
+    CompletableFuture<AISSignResponse> requestSignatureAsync(AISSignRequest request, Trace trace);
+
+    CompletableFuture<AISSignResponse> pollForSignatureStatusAsync(AISPendingRequest request, Trace trace);
+
+}
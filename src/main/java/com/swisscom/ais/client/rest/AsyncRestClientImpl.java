@@ -0,0 +1,300 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import com.swisscom.ais.client.RestClientException;
+import com.swisscom.ais.client.rest.model.etsi.ETSISignResponse;
+import com.swisscom.ais.client.rest.model.etsi.ETSISigningRequest;
+import com.swisscom.ais.client.rest.model.pendingreq.AISPendingRequest;
+import com.swisscom.ais.client.rest.model.signreq.AISSignRequest;
+import com.swisscom.ais.client.rest.model.signresp.AISSignResponse;
+import com.swisscom.ais.client.utils.Trace;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.nio.AsyncConnectionEndpoint;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.config.Lookup;
+import org.apache.hc.core5.http.config.RegistryBuilder;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * REST client that uses the non-blocking HTTP client of Apache HttpComponents. The connections are negotiated to HTTP/2 (via
+ * ALPN) whenever the server supports it, so that many concurrent Sign and Pending requests are multiplexed over a few pooled
+ * connections, driven by a small number of I/O threads. The mutual TLS setup is the same as for the {@link RestClientImpl}.
+ */
+public class AsyncRestClientImpl extends AbstractRestClientImpl implements AsyncRestClient {
+
+    protected CloseableHttpAsyncClient asyncHttpClient;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    @Override
+    protected void setUpHttpClient(RestClientConfiguration config, SSLContext sslContext) {
+        Lookup<TlsStrategy> tlsStrategyLookup = RegistryBuilder.<TlsStrategy>create()
+                .register(URIScheme.HTTPS.id, ClientTlsStrategyBuilder.create().setSslContext(sslContext).build())
+                .build();
+        ConnectionPoolMonitor poolMonitor = new ConnectionPoolMonitor(config);
+        PoolingAsyncClientConnectionManager connectionManager = new PoolingAsyncClientConnectionManager(
+                tlsStrategyLookup, PoolConcurrencyPolicy.STRICT, PoolReusePolicy.LIFO, produceTheConnectionTimeToLive(config)) {
+            @Override
+            public Future<AsyncConnectionEndpoint> lease(String id, HttpRoute route, Object state, Timeout requestTimeout,
+                                                         FutureCallback<AsyncConnectionEndpoint> callback) {
+                long leaseStart = System.nanoTime();
+                return super.lease(id, route, state, requestTimeout, new FutureCallback<AsyncConnectionEndpoint>() {
+                    @Override
+                    public void completed(AsyncConnectionEndpoint endpoint) {
+                        poolMonitor.recordLeaseWait(route, System.nanoTime() - leaseStart);
+                        if (callback != null) {
+                            callback.completed(endpoint);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        poolMonitor.recordLeaseWait(route, System.nanoTime() - leaseStart);
+                        if (callback != null) {
+                            callback.failed(e);
+                        }
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        if (callback != null) {
+                            callback.cancelled();
+                        }
+                    }
+                });
+            }
+        };
+        connectionManager.setMaxTotal(config.getMaxTotalConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        connectionManager.setValidateAfterInactivity(TimeValue.ofMilliseconds(config.getValidateAfterInactivityInMillis()));
+        startConnectionPoolMonitor(poolMonitor, connectionManager, config);
+
+        HttpAsyncClientBuilder httpClientBuilder = HttpAsyncClients.custom();
+        if (config.isEnableProxy()) {
+            httpClientBuilder.setProxy(produceTheProxy());
+            if (config.isEnableProxyAuth()) {
+                httpClientBuilder.setDefaultCredentialsProvider(produceTheProxyCredentialsProvider());
+            }
+        }
+        if (config.getIdleConnectionTimeoutInSec() > 0) {
+            httpClientBuilder.evictIdleConnections(TimeValue.ofSeconds(config.getIdleConnectionTimeoutInSec()));
+        }
+
+        asyncHttpClient = httpClientBuilder
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(produceTheKeepAliveStrategy(config))
+                .evictExpiredConnections()
+                .setRetryStrategy(produceTheRetryStrategy(config))
+                .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                .setH2Config(H2Config.DEFAULT)
+                .setDefaultRequestConfig(produceTheRequestConfig(config))
+                .build();
+        asyncHttpClient.start();
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    @Override
+    public AISSignResponse requestSignature(AISSignRequest requestWrapper, Trace trace) {
+        return waitFor(requestSignatureAsync(requestWrapper, trace));
+    }
+
+    @Override
+    public AISSignResponse pollForSignatureStatus(AISPendingRequest requestWrapper, Trace trace) {
+        return waitFor(pollForSignatureStatusAsync(requestWrapper, trace));
+    }
+
+    @Override
+    public ETSISignResponse signETSI(ETSISigningRequest signingRequest, Trace trace) {
+        return waitFor(sendAndReceiveAsync("SignEtsi", config.getAisSigningUrl(),
+                signingRequest, ETSISignResponse.class, null, trace));
+    }
+
+    @Override
+    public CompletableFuture<AISSignResponse> requestSignatureAsync(AISSignRequest requestWrapper, Trace trace) {
+        if (isHedged(requestWrapper)) {
+            return hedgingPolicy.execute("SignRequest", () -> sendAndReceiveAsync("SignRequest", config.getRestServiceSignUrl(),
+                    requestWrapper, AISSignResponse.class, hedgedAttemptRequestConfig, trace), trace);
+        }
+        return sendAndReceiveAsync("SignRequest", config.getRestServiceSignUrl(),
+                requestWrapper, AISSignResponse.class, null, trace);
+    }
+
+    @Override
+    public CompletableFuture<AISSignResponse> pollForSignatureStatusAsync(AISPendingRequest requestWrapper, Trace trace) {
+        if (isHedged(requestWrapper)) {
+            return hedgingPolicy.execute("PendingRequest", () -> sendAndReceiveAsync("PendingRequest", config.getRestServicePendingUrl(),
+                    requestWrapper, AISSignResponse.class, hedgedAttemptRequestConfig, trace), trace);
+        }
+        return sendAndReceiveAsync("PendingRequest", config.getRestServicePendingUrl(),
+                requestWrapper, AISSignResponse.class, null, trace);
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Sends the OPTIONS requests for all the connections at once, so that they run in parallel, each on its own connection. When
+     * HTTP/2 is negotiated with the server, the requests share a single connection.
+     */
+    @Override
+    public int warmUp(int connectionCount, Trace trace) {
+        int count = limitWarmUpConnections(connectionCount);
+        if (count == 0) {
+            return 0;
+        }
+        String serviceUrl = config.getRestServiceSignUrl();
+        long startTime = System.currentTimeMillis();
+        List<Future<SimpleHttpResponse>> exchanges = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            exchanges.add(asyncHttpClient.execute(SimpleRequestBuilder.options(serviceUrl).build(), null));
+        }
+        int openedCount = 0;
+        for (Future<SimpleHttpResponse> exchange : exchanges) {
+            try {
+                exchange.get(config.getConnectionTimeoutInSec() + config.getResponseTimeoutInSec(), TimeUnit.SECONDS);
+                openedCount++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+                logClient.warn("Failed to open a connection to [{}] during the warm-up: {} - {}", serviceUrl, cause.getMessage(), trace.getId());
+                exchange.cancel(true);
+            }
+        }
+        logClient.info("Warm-up: opened {} of {} connections to [{}] in {} ms - {}",
+                       openedCount, count, serviceUrl, System.currentTimeMillis() - startTime, trace.getId());
+        return openedCount;
+    }
+
+    private <TReq, TResp> CompletableFuture<TResp> sendAndReceiveAsync(String operationName,
+                                                                       String serviceUrl,
+                                                                       TReq requestObject,
+                                                                       Class<TResp> responseClass,
+                                                                       RequestConfig requestConfig,
+                                                                       Trace trace) {
+        CompletableFuture<TResp> result = new CompletableFuture<>();
+        byte[] requestJson;
+        try {
+            requestJson = serializeRequest(requestObject, operationName, trace);
+        } catch (RestClientException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        SimpleHttpRequest httpPost = SimpleRequestBuilder.post(serviceUrl)
+                .setBody(requestJson, ContentType.APPLICATION_JSON)
+                .setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType())
+                .build();
+        if (requestConfig != null) {
+            httpPost.setConfig(requestConfig);
+        }
+        logProtocol.info("{}: Sending request to: [{}] - {}", operationName, serviceUrl, trace.getId());
+        logRequest(requestJson, operationName, serviceUrl, trace);
+
+        Future<SimpleHttpResponse> exchange = asyncHttpClient.execute(httpPost, new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                try {
+                    result.complete(interpretResponse(response, operationName, responseClass, trace));
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                if (e instanceof SSLException) {
+                    result.completeExceptionally(new RestClientException("TLS/SSL connection failure for " + operationName + " - " + trace.getId(), e));
+                } else {
+                    result.completeExceptionally(new RestClientException("Communication failure for " + operationName + " - " + trace.getId(), e));
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        // cancelling the returned future also aborts the HTTP exchange
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private <TResp> TResp interpretResponse(SimpleHttpResponse response, String operationName, Class<TResp> responseClass, Trace trace) {
+        logProtocol.info("{}: Received HTTP status code: {} - {}", operationName, response.getCode(), trace.getId());
+        if (response.getCode() == 200) {
+            byte[] responseJson = response.getBodyBytes();
+            if (responseJson == null) {
+                throw new RestClientException("Received an empty HTTP response, for operation " + operationName + " - " + trace.getId());
+            }
+            return deserializeResponse(responseJson, responseClass, operationName, trace);
+        } else {
+            throw new FaultResponseException("Received fault response: HTTP " +
+                    response.getCode() + " " +
+                    response.getReasonPhrase() + " - " + trace.getId(), response.getCode());
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    @Override
+    public void close() {
+        logClient.debug("Closing the REST client");
+        if (asyncHttpClient != null) {
+            logClient.debug("Closing the embedded asynchronous HTTP client");
+            asyncHttpClient.close(CloseMode.GRACEFUL);
+        }
+        stopWarmUp();
+        closeConnectionPoolMonitor();
+        closeHedgingPolicy();
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import org.apache.hc.client5.http.HttpRequestRetryStrategy;
+import org.apache.hc.client5.http.impl.DefaultHttpRequestRetryStrategy;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.TimeValue;
+
+import java.io.IOException;
+
+/**
+ * Retry strategy of the HTTP client that applies the HTTP client's default strategy (one retry after one second for 429 and 503
+ * responses) only while {@link RestClientConfiguration#isAutomaticRetries()} is on. The flag is checked for each request, so
+ * that the AIS client can turn the automatic retries off after the HTTP client was created, when it has its own retry policy.
+ */
+class ConfigurableRetryStrategy implements HttpRequestRetryStrategy {
+
+    private final RestClientConfiguration config;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    ConfigurableRetryStrategy(RestClientConfiguration config) {
+        this.config = config;
+    }
+
+    @Override
+    public boolean retryRequest(HttpRequest request, IOException exception, int execCount, HttpContext context) {
+        return config.isAutomaticRetries()
+               && DefaultHttpRequestRetryStrategy.INSTANCE.retryRequest(request, exception, execCount, context);
+    }
+
+    @Override
+    public boolean retryRequest(HttpResponse response, int execCount, HttpContext context) {
+        return config.isAutomaticRetries() && DefaultHttpRequestRetryStrategy.INSTANCE.retryRequest(response, execCount, context);
+    }
+
+    @Override
+    public TimeValue getRetryInterval(HttpResponse response, int execCount, HttpContext context) {
+        return DefaultHttpRequestRetryStrategy.INSTANCE.getRetryInterval(response, execCount, context);
+    }
+
+}
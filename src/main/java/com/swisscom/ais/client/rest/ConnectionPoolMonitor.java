@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.NamedThreadFactory;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the time that the requests of a REST client wait for a connection from the pool and, when the adaptive pool
+ * mode is enabled, periodically adjusts the maximum number of connections per route:
+ * <ul>
+ *     <li>the limit grows (by half, up to the maximum total of connections) when requests are queued for a connection or when
+ *     the average wait for a connection in the last interval exceeded the target while the pool is still busy;</li>
+ *     <li>the limit shrinks (by a quarter, down to the configured connections per route) when there was no noticeable wait and
+ *     less than half of the allowed connections are in use.</li>
+ * </ul>
+ */
+class ConnectionPoolMonitor implements Closeable {
+
+    private static final Logger logClient = LoggerFactory.getLogger(Loggers.CLIENT);
+
+    private final int minMaxPerRoute;
+    private final int maxMaxPerRoute;
+    private final long targetLeaseWaitInNanos;
+
+    private final LongAdder leaseCount = new LongAdder();
+    private final LongAdder totalLeaseWaitInNanos = new LongAdder();
+    private final AtomicLong maxLeaseWaitInNanos = new AtomicLong();
+    private final Map<HttpRoute, LeaseWaitWindow> leaseWaitWindows = new ConcurrentHashMap<>();
+
+    private volatile ConnPoolControl<HttpRoute> pool;
+    private volatile ScheduledExecutorService tuningExecutor;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    ConnectionPoolMonitor(RestClientConfiguration config) {
+        this.minMaxPerRoute = Math.min(config.getMaxConnectionsPerRoute(), config.getMaxTotalConnections());
+        this.maxMaxPerRoute = config.getMaxTotalConnections();
+        this.targetLeaseWaitInNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdaptivePoolTargetLeaseWaitInMillis());
+    }
+
+    /**
+     * Starts monitoring the given pool (and tuning it, if the adaptive pool mode is enabled).
+     */
+    synchronized void start(ConnPoolControl<HttpRoute> pool, RestClientConfiguration config) {
+        this.pool = pool;
+        if (config.isAdaptivePool() && tuningExecutor == null) {
+            tuningExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ais-client-pool-tuner"));
+            long interval = config.getAdaptivePoolIntervalInSec();
+            tuningExecutor.scheduleWithFixedDelay(this::tune, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    void recordLeaseWait(HttpRoute route, long waitInNanos) {
+        leaseCount.increment();
+        totalLeaseWaitInNanos.add(waitInNanos);
+        maxLeaseWaitInNanos.accumulateAndGet(waitInNanos, Math::max);
+        if (tuningExecutor != null) {
+            leaseWaitWindows.computeIfAbsent(route, key -> new LeaseWaitWindow()).record(waitInNanos);
+        }
+    }
+
+    ConnectionPoolStatistics getStatistics() {
+        ConnPoolControl<HttpRoute> currentPool = pool;
+        if (currentPool == null) {
+            return null;
+        }
+        PoolStats totalStats = currentPool.getTotalStats();
+        int maxPerRoute = currentPool.getDefaultMaxPerRoute();
+        for (HttpRoute route : currentPool.getRoutes()) {
+            maxPerRoute = Math.max(maxPerRoute, currentPool.getMaxPerRoute(route));
+        }
+        long leases = leaseCount.sum();
+        return new ConnectionPoolStatistics(totalStats.getLeased(), totalStats.getPending(), totalStats.getAvailable(),
+                                            totalStats.getMax(), maxPerRoute, leases,
+                                            leases == 0 ? 0 : totalLeaseWaitInNanos.sum() / (double) leases / 1_000_000,
+                                            maxLeaseWaitInNanos.get() / 1_000_000.0);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (tuningExecutor != null) {
+            tuningExecutor.shutdownNow();
+            tuningExecutor = null;
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private void tune() {
+        try {
+            ConnPoolControl<HttpRoute> currentPool = pool;
+            for (HttpRoute route : currentPool.getRoutes()) {
+                LeaseWaitWindow window = leaseWaitWindows.get(route);
+                long averageWaitInNanos = window == null ? 0 : window.averageAndReset();
+                PoolStats routeStats = currentPool.getStats(route);
+                int currentMax = currentPool.getMaxPerRoute(route);
+                int newMax = currentMax;
+                boolean busy = routeStats.getPending() > 0 ||
+                               averageWaitInNanos > targetLeaseWaitInNanos && routeStats.getLeased() >= currentMax / 2;
+                if (busy && currentMax < maxMaxPerRoute) {
+                    newMax = Math.min(maxMaxPerRoute, currentMax + Math.max(1, currentMax / 2));
+                } else if (routeStats.getPending() == 0 && averageWaitInNanos <= targetLeaseWaitInNanos / 2 &&
+                           routeStats.getLeased() < currentMax / 2 && currentMax > minMaxPerRoute) {
+                    newMax = Math.max(minMaxPerRoute, Math.max(routeStats.getLeased() * 2, currentMax - Math.max(1, currentMax / 4)));
+                }
+                if (newMax != currentMax) {
+                    currentPool.setMaxPerRoute(route, newMax);
+                    logClient.info("Adaptive connection pool: changed the maximum connections for route [{}] from {} to {} " +
+                                   "(leased: {}, pending: {}, average wait for a connection: {} ms)",
+                                   route, currentMax, newMax, routeStats.getLeased(), routeStats.getPending(),
+                                   TimeUnit.NANOSECONDS.toMillis(averageWaitInNanos));
+                }
+            }
+        } catch (Exception e) {
+            logClient.warn("Failed to tune the HTTP connection pool", e);
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static class LeaseWaitWindow {
+        private long count;
+        private long totalWaitInNanos;
+
+        private synchronized void record(long waitInNanos) {
+            count++;
+            totalWaitInNanos += waitInNanos;
+        }
+
+        private synchronized long averageAndReset() {
+            long average = count == 0 ? 0 : totalWaitInNanos / count;
+            count = 0;
+            totalWaitInNanos = 0;
+            return average;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+/**
+ * Snapshot of the state of the HTTP connection pool of a REST client, as returned by
+ * {@link AbstractRestClientImpl#getConnectionPoolStatistics()}.
+ */
+public class ConnectionPoolStatistics {
+
+    private final int leased;
+    private final int pending;
+    private final int available;
+    private final int maxTotal;
+    private final int maxPerRoute;
+    private final long leaseCount;
+    private final double averageLeaseWaitInMillis;
+    private final double maxLeaseWaitInMillis;
+
+    public ConnectionPoolStatistics(int leased, int pending, int available, int maxTotal, int maxPerRoute,
+                                    long leaseCount, double averageLeaseWaitInMillis, double maxLeaseWaitInMillis) {
+        this.leased = leased;
+        this.pending = pending;
+        this.available = available;
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+        this.leaseCount = leaseCount;
+        this.averageLeaseWaitInMillis = averageLeaseWaitInMillis;
+        this.maxLeaseWaitInMillis = maxLeaseWaitInMillis;
+    }
+
+    /**
+     * @return the number of connections that are currently in use by a request
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return the number of requests that are currently waiting for a connection
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return the number of idle connections that are kept open for reuse
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * @return the highest limit of connections per route (this changes over time when the adaptive pool mode is enabled)
+     */
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    /**
+     * @return the number of connections leased from the pool since the client was created
+     */
+    public long getLeaseCount() {
+        return leaseCount;
+    }
+
+    /**
+     * @return the average time that the requests waited for a connection, since the client was created
+     */
+    public double getAverageLeaseWaitInMillis() {
+        return averageLeaseWaitInMillis;
+    }
+
+    /**
+     * @return the longest time that a request waited for a connection, since the client was created
+     */
+    public double getMaxLeaseWaitInMillis() {
+        return maxLeaseWaitInMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStatistics{" +
+               "leased=" + leased +
+               ", pending=" + pending +
+               ", available=" + available +
+               ", maxTotal=" + maxTotal +
+               ", maxPerRoute=" + maxPerRoute +
+               ", leaseCount=" + leaseCount +
+               ", averageLeaseWaitInMillis=" + String.format("%.2f", averageLeaseWaitInMillis) +
+               ", maxLeaseWaitInMillis=" + String.format("%.2f", maxLeaseWaitInMillis) +
+               '}';
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import com.swisscom.ais.client.rest.model.SignatureType;
+import com.swisscom.ais.client.rest.model.pendingreq.AISPendingRequest;
+import com.swisscom.ais.client.rest.model.signreq.AISSignRequest;
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.NamedThreadFactory;
+import com.swisscom.ais.client.utils.Trace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hedging for the idempotent AIS operations (timestamp Sign requests and Pending requests). The first attempt is sent right away;
+ * if it has not completed once the configured percentile of the recent latencies of the same operation has elapsed, a second,
+ * identical attempt is sent. The first successful response wins and the other attempt is cancelled (which aborts its HTTP
+ * exchange). No second attempt is sent while too few latencies have been recorded for the operation, or once the first attempt
+ * failed: retrying failed requests is not the job of the hedging.
+ */
+class HedgingPolicy implements Closeable {
+
+    private static final Logger logProtocol = LoggerFactory.getLogger(Loggers.CLIENT_PROTOCOL);
+
+    private static final int LATENCY_WINDOW_SIZE = 256;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final int percentile;
+    private final long minDelayInNanos;
+    private final Map<String, LatencyWindow> latencyWindows = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService hedgeScheduler;
+    private volatile ExecutorService blockingAttemptExecutor;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    HedgingPolicy(RestClientConfiguration config) {
+        this.percentile = config.getHedgingPercentile();
+        this.minDelayInNanos = TimeUnit.MILLISECONDS.toNanos(config.getHedgingMinDelayInMillis());
+        this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ais-client-hedging"));
+    }
+
+    /**
+     * @return whether the given request can safely be sent twice: Pending requests and the Sign requests for timestamps
+     */
+    static boolean isIdempotent(Object request) {
+        if (request instanceof AISPendingRequest) {
+            return true;
+        }
+        if (request instanceof AISSignRequest) {
+            AISSignRequest signRequest = (AISSignRequest) request;
+            return signRequest.getSignRequest() != null &&
+                   signRequest.getSignRequest().getOptionalInputs() != null &&
+                   SignatureType.TIMESTAMP.getUri().equals(signRequest.getSignRequest().getOptionalInputs().getSignatureType());
+        }
+        return false;
+    }
+
+    /**
+     * Runs an operation with hedging.
+     *
+     * @param operationName the name of the operation, used to keep the latencies of the different operations apart
+     * @param attempt       the code that sends one attempt of the operation; cancelling the returned future must abort the attempt
+     * @param trace         the trace of the operation
+     * @return a future that is completed with the first successful response, or with the failure of the attempts
+     */
+    <T> CompletableFuture<T> execute(String operationName, Supplier<CompletableFuture<T>> attempt, Trace trace) {
+        LatencyWindow latencyWindow = latencyWindows.computeIfAbsent(operationName, key -> new LatencyWindow());
+        HedgedOperation<T> operation = new HedgedOperation<>(operationName, attempt, latencyWindow, trace);
+        operation.startAttempt(false);
+        long hedgeDelayInNanos = latencyWindow.getHedgeDelayInNanos();
+        if (hedgeDelayInNanos >= 0 && !operation.result.isDone()) {
+            try {
+                operation.scheduledHedge = hedgeScheduler.schedule(() -> operation.startHedge(hedgeDelayInNanos), hedgeDelayInNanos, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                logProtocol.debug("{}: Failed to schedule the hedged request: {} - {}", operationName, e.getMessage(), trace.getId());
+            }
+        }
+        return operation.result;
+    }
+
+    /**
+     * @return the executor for the attempts of the blocking (classic) HTTP client, created on the first use
+     */
+    ExecutorService getBlockingAttemptExecutor() {
+        ExecutorService executor = blockingAttemptExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = blockingAttemptExecutor;
+                if (executor == null) {
+                    executor = Executors.newCachedThreadPool(new NamedThreadFactory("ais-client-hedged-request"));
+                    blockingAttemptExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void close() {
+        hedgeScheduler.shutdownNow();
+        if (blockingAttemptExecutor != null) {
+            blockingAttemptExecutor.shutdownNow();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private class HedgedOperation<T> {
+        private final String operationName;
+        private final Supplier<CompletableFuture<T>> attempt;
+        private final LatencyWindow latencyWindow;
+        private final Trace trace;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<CompletableFuture<T>> attempts = new ArrayList<>(2);
+        private int failedAttempts;
+        private Throwable firstFailure;
+        private volatile ScheduledFuture<?> scheduledHedge;
+
+        private HedgedOperation(String operationName, Supplier<CompletableFuture<T>> attempt, LatencyWindow latencyWindow, Trace trace) {
+            this.operationName = operationName;
+            this.attempt = attempt;
+            this.latencyWindow = latencyWindow;
+            this.trace = trace;
+            result.whenComplete((response, error) -> cancelRemainingAttempts());
+        }
+
+        private void startHedge(long hedgeDelayInNanos) {
+            synchronized (this) {
+                if (result.isDone() || failedAttempts > 0) {
+                    return;
+                }
+            }
+            logProtocol.info("{}: No response after {} ms, sending a hedged request - {}",
+                             operationName, TimeUnit.NANOSECONDS.toMillis(hedgeDelayInNanos), trace.getId());
+            startAttempt(true);
+        }
+
+        private void startAttempt(boolean hedge) {
+            long startTime = System.nanoTime();
+            CompletableFuture<T> attemptResult;
+            try {
+                attemptResult = attempt.get();
+            } catch (Exception e) {
+                attemptResult = new CompletableFuture<>();
+                attemptResult.completeExceptionally(e);
+            }
+            synchronized (this) {
+                attempts.add(attemptResult);
+            }
+            if (result.isDone()) {
+                attemptResult.cancel(true);
+                return;
+            }
+            attemptResult.whenComplete((response, error) -> {
+                if (error == null) {
+                    latencyWindow.record(System.nanoTime() - startTime);
+                    if (result.complete(response) && hedge) {
+                        logProtocol.info("{}: The hedged request completed first - {}", operationName, trace.getId());
+                    }
+                } else {
+                    onAttemptFailed(error);
+                }
+            });
+        }
+
+        private void onAttemptFailed(Throwable error) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            boolean allFailed;
+            synchronized (this) {
+                failedAttempts++;
+                if (firstFailure == null) {
+                    firstFailure = cause;
+                } else if (firstFailure != cause) {
+                    firstFailure.addSuppressed(cause);
+                }
+                allFailed = failedAttempts == attempts.size();
+            }
+            if (allFailed) {
+                result.completeExceptionally(firstFailure);
+            }
+        }
+
+        private void cancelRemainingAttempts() {
+            ScheduledFuture<?> hedge = scheduledHedge;
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+            List<CompletableFuture<T>> startedAttempts;
+            synchronized (this) {
+                startedAttempts = new ArrayList<>(attempts);
+            }
+            for (CompletableFuture<T> startedAttempt : startedAttempts) {
+                if (!startedAttempt.isDone()) {
+                    startedAttempt.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * The latencies of the last successful attempts of one operation.
+     */
+    private class LatencyWindow {
+        private final long[] latenciesInNanos = new long[LATENCY_WINDOW_SIZE];
+        private int nextIndex;
+        private int size;
+
+        private synchronized void record(long latencyInNanos) {
+            latenciesInNanos[nextIndex] = latencyInNanos;
+            nextIndex = (nextIndex + 1) % latenciesInNanos.length;
+            size = Math.min(size + 1, latenciesInNanos.length);
+        }
+
+        /**
+         * @return the delay after which to send the hedged request, or -1 if there are not enough latencies recorded yet
+         */
+        private long getHedgeDelayInNanos() {
+            long[] sortedLatencies;
+            synchronized (this) {
+                if (size < MIN_LATENCY_SAMPLES) {
+                    return -1;
+                }
+                sortedLatencies = Arrays.copyOf(latenciesInNanos, size);
+            }
+            Arrays.sort(sortedLatencies);
+            int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+            return Math.max(minDelayInNanos, sortedLatencies[Math.max(0, index)]);
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.swisscom.ais.client.rest.model.etsi.ETSISignResponse;
+import com.swisscom.ais.client.rest.model.etsi.ETSISigningRequest;
+import com.swisscom.ais.client.rest.model.etsi.auth.AuthRequest;
+import com.swisscom.ais.client.rest.model.etsi.auth.TokenResponse;
+import com.swisscom.ais.client.rest.model.pendingreq.AISPendingRequest;
+import com.swisscom.ais.client.rest.model.signreq.AISSignRequest;
+import com.swisscom.ais.client.rest.model.signresp.AISSignResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON serialization for the AIS (and ETSI) requests and responses, shared by all the clients of the process. Jackson's mapper
+ * keeps the serializers and deserializers that it builds for a type, so a single, shared mapper pays this cost only once per
+ * type, instead of once per client. The readers and writers of the request and response types are built upfront.
+ * <p>
+ * By default, all the responses are mapped with Jackson's bean deserializers, so every field of the model is filled in. The
+ * {@link #getStreamingInstance() streaming instance} reads the AIS sign responses with a streaming deserializer instead, which is
+ * faster but only builds the parts of the model that the client uses (see {@link AISSignResponseDeserializer}).
+ * <p>
+ * The readers do not close the input streams and the writers do not close the output streams they are given; this is left to
+ * the caller (typically the HTTP client, which needs to consume the rest of the entity to reuse the connection).
+ */
+public final class JsonCodec {
+
+    private static final JsonCodec INSTANCE = new JsonCodec(false);
+    private static final JsonCodec STREAMING_INSTANCE = new JsonCodec(true);
+
+    private final ObjectMapper objectMapper;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private JsonCodec(boolean streamingSignResponses) {
+        objectMapper = new ObjectMapper();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
+        objectMapper.setSerializationInclusion(JsonInclude.Include.USE_DEFAULTS);
+        if (streamingSignResponses) {
+            objectMapper.registerModule(new SimpleModule("AisResponseCodecs")
+                                            .addDeserializer(AISSignResponse.class, new AISSignResponseDeserializer()));
+        }
+
+        writerFor(AISSignRequest.class);
+        writerFor(AISPendingRequest.class);
+        writerFor(ETSISigningRequest.class);
+        writerFor(AuthRequest.class);
+        readerFor(AISSignResponse.class);
+        readerFor(ETSISignResponse.class);
+        readerFor(TokenResponse.class);
+    }
+
+    public static JsonCodec getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the instance that reads the AIS sign responses with {@link AISSignResponseDeserializer}; the fields of the response
+     * that the client does not use are left empty
+     */
+    public static JsonCodec getStreamingInstance() {
+        return STREAMING_INSTANCE;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the shared mapper; it must not be reconfigured, as this would affect all the clients
+     */
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    public ObjectReader readerFor(Class<?> valueType) {
+        return readers.computeIfAbsent(valueType, type -> objectMapper.readerFor(type).without(JsonParser.Feature.AUTO_CLOSE_SOURCE));
+    }
+
+    public ObjectWriter writerFor(Class<?> valueType) {
+        return writers.computeIfAbsent(valueType, type -> objectMapper.writerFor(type).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+    }
+
+    public byte[] writeValueAsBytes(Object value) throws IOException {
+        return writerFor(value.getClass()).writeValueAsBytes(value);
+    }
+
+    public String writeValueAsString(Object value) throws IOException {
+        return writerFor(value.getClass()).writeValueAsString(value);
+    }
+
+    public void writeValue(OutputStream target, Object value) throws IOException {
+        writerFor(value.getClass()).writeValue(target, value);
+    }
+
+    public <T> T readValue(byte[] content, Class<T> valueType) throws IOException {
+        return readerFor(valueType).readValue(content);
+    }
+
+    public <T> T readValue(InputStream source, Class<T> valueType) throws IOException {
+        return readerFor(valueType).readValue(source);
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.swisscom.ais.client.rest;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * HTTP entity that serializes an object to JSON directly into the HTTP connection, without an intermediate String or byte array.
+ * The length of the content is not known in advance, so the entity is sent with chunked transfer encoding.
+ */
+class JsonStreamingEntity extends AbstractHttpEntity {
+
+    private final ObjectWriter jsonWriter;
+    private final Object content;
+
+    /**
+     * @param jsonWriter the writer to use; it must not close the target stream (the HTTP client closes it)
+     * @param content    the object to serialize
+     */
+    JsonStreamingEntity(ObjectWriter jsonWriter, Object content) {
+        super(ContentType.APPLICATION_JSON, null, true);
+        this.jsonWriter = jsonWriter;
+        this.content = content;
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        jsonWriter.writeValue(outStream, content);
+        outStream.flush();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        // only used when something asks for the content itself (not when sending the request)
+        return new ByteArrayInputStream(jsonWriter.writeValueAsBytes(content));
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+}
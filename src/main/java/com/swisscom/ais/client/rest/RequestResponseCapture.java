@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import com.swisscom.ais.client.utils.LargeBase64ContentRedactor;
+import com.swisscom.ais.client.utils.Loggers;
+import com.swisscom.ais.client.utils.Trace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Logs the bodies of the requests sent to AIS and of the responses received back. The request-response logger gets the responses
+ * with the large Base64 values (signatures, CRLs, OCSP responses) shortened; the full request-response logger gets everything.
+ * The bodies are turned into text (and shortened) only for the loggers that are enabled, and at most once per body.
+ */
+class RequestResponseCapture {
+
+    private static final Logger logReqResp = LoggerFactory.getLogger(Loggers.REQUEST_RESPONSE);
+    private static final Logger logFullReqResp = LoggerFactory.getLogger(Loggers.FULL_REQUEST_RESPONSE);
+
+    private final LargeBase64ContentRedactor redactor = LargeBase64ContentRedactor.forJsonStrings();
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @return whether any of the body loggers is enabled; when none is, the callers don't need to keep the bodies around
+     */
+    boolean isEnabled() {
+        return logReqResp.isInfoEnabled() || logFullReqResp.isInfoEnabled();
+    }
+
+    void captureRequest(String operationName, String serviceUrl, byte[] requestJson, Trace trace) {
+        if (!isEnabled()) {
+            return;
+        }
+        RenderedBody body = new RenderedBody(requestJson, null);
+        logReqResp.info("{}: Sending JSON to: [{}], content: [{}] - {}", operationName, serviceUrl, body, trace.getId());
+        logFullReqResp.info("{}: Sending JSON to: [{}], content: [{}] - {}", operationName, serviceUrl, body, trace.getId());
+    }
+
+    void captureResponse(String operationName, byte[] responseJson, Trace trace) {
+        if (logReqResp.isInfoEnabled()) {
+            logReqResp.info("{}: Received JSON content: {} - {}", operationName, new RenderedBody(responseJson, redactor), trace.getId());
+        }
+        if (logFullReqResp.isInfoEnabled()) {
+            logFullReqResp.info("{}: Received JSON content: {} - {}", operationName, new RenderedBody(responseJson, null), trace.getId());
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Message argument that renders the body only when the logging framework actually formats the message.
+     */
+    private static class RenderedBody {
+
+        private final byte[] content;
+        private final LargeBase64ContentRedactor redactor;
+        private String text;
+
+        private RenderedBody(byte[] content, LargeBase64ContentRedactor redactor) {
+            this.content = content;
+            this.redactor = redactor;
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (text == null) {
+                text = redactor == null ? new String(content, StandardCharsets.UTF_8) : redactor.redact(content);
+            }
+            return text;
+        }
+    }
+
+}
@@ -31,4 +31,23 @@ public interface RestClient extends Closeable {
     AISSignResponse pollForSignatureStatus(AISPendingRequest request, Trace trace);
 
     ETSISignResponse signETSI(ETSISigningRequest signingRequest, Trace trace);
+
+    /**
+     * Opens up to the given number of connections to the AIS service (limited by the connection pool configuration) and leaves
+     * them in the pool, so that the first signatures don't wait for new connections and TLS handshakes. Failures are logged and
+     * are not thrown.
+     *
+     * @return the number of connections that were opened
+     */
+    default int warmUp(int connectionCount, Trace trace) {
+        return 0;
+    }
+
+    /**
+     * Turns on or off the automatic retries of the underlying HTTP client (see {@link RestClientConfiguration#isAutomaticRetries()}).
+     * The AIS client turns them off when it has its own retry policy.
+     */
+    default void setAutomaticRetries(boolean automaticRetries) {
+        // no code here
+    }
 }
@@ -30,6 +30,12 @@ public class RestClientConfiguration {
     private static final int CLIENT_MAX_CONNECTIONS_PER_ROUTE = 10;
     private static final int CLIENT_SOCKET_TIMEOUT_IN_SEC = 10;
     private static final int CLIENT_RESPONSE_TIMEOUT_IN_SEC = 20;
+    private static final int CLIENT_MAX_CONNECTIONS_LIMIT = 1000;
+    private static final int CLIENT_ADAPTIVE_POOL_INTERVAL_IN_SEC = 5;
+    private static final int CLIENT_ADAPTIVE_POOL_TARGET_LEASE_WAIT_IN_MILLIS = 20;
+    private static final int CLIENT_VALIDATE_AFTER_INACTIVITY_IN_MILLIS = 2000;
+    private static final int CLIENT_HEDGING_PERCENTILE = 95;
+    private static final int CLIENT_HEDGING_MIN_DELAY_IN_MILLIS = 100;
 
     // ----------------------------------------------------------------------------------------------------
 
@@ -51,6 +57,86 @@ public class RestClientConfiguration {
     private int connectionTimeoutInSec = CLIENT_SOCKET_TIMEOUT_IN_SEC;
     private int responseTimeoutInSec = CLIENT_RESPONSE_TIMEOUT_IN_SEC;
 
+    /**
+     * Whether the request JSON is written directly to the HTTP connection (with chunked transfer encoding) and the response JSON is
+     * parsed directly from it, instead of going through an in-memory copy of each message.
+     */
+    private boolean streamingJson;
+
+    /**
+     * Whether the AIS sign responses are read with a streaming parser that only fills in the fields that the client uses, instead
+     * of the full mapping of the response model.
+     */
+    private boolean streamingResponseParser;
+
+    /**
+     * Whether the HTTP client resends a request (once, after one second) when AIS answers with 429 or 503. This is the default
+     * behavior of the HTTP client. The AIS client turns it off when it has its own retry policy, so that the requests are not
+     * retried outside of the retry budget. This can be changed while the client is in use.
+     */
+    private volatile boolean automaticRetries = true;
+
+    /**
+     * Whether the maximum number of connections per route is adjusted at runtime, between maxConnectionsPerRoute and
+     * maxTotalConnections, based on the time that the requests wait for a connection and on the number of requests in flight.
+     */
+    private boolean adaptivePool;
+    private int adaptivePoolIntervalInSec = CLIENT_ADAPTIVE_POOL_INTERVAL_IN_SEC;
+    private int adaptivePoolTargetLeaseWaitInMillis = CLIENT_ADAPTIVE_POOL_TARGET_LEASE_WAIT_IN_MILLIS;
+
+    /**
+     * The number of connections to open to the AIS service when the client is configured (0 for none), so that the first
+     * requests reuse them instead of waiting for new connections and TLS handshakes.
+     */
+    private int warmUpConnections;
+
+    /**
+     * The size of the TLS session cache (the sessions that can be resumed, with an abbreviated handshake, by new connections).
+     * 0 keeps the JVM's default.
+     */
+    private int tlsSessionCacheSize;
+
+    /**
+     * How long a cached TLS session can be resumed. 0 keeps the JVM's default.
+     */
+    private int tlsSessionTimeoutInSec;
+
+    /**
+     * The maximum lifetime of a pooled connection, regardless of its activity. 0 means that the connections are not expired
+     * based on their age.
+     */
+    private int connectionTimeToLiveInSec;
+
+    /**
+     * How long a connection can stay idle in the pool before it is closed by the background evictor. 0 means that idle
+     * connections are only closed when their keep-alive duration expires.
+     */
+    private int idleConnectionTimeoutInSec;
+
+    /**
+     * The period of inactivity after which a pooled connection is checked for staleness before being reused.
+     */
+    private int validateAfterInactivityInMillis = CLIENT_VALIDATE_AFTER_INACTIVITY_IN_MILLIS;
+
+    /**
+     * The upper limit for the keep-alive duration announced by the server (in the Keep-Alive response header), also used when the
+     * server does not announce any. 0 means that the server's value is used as it is (and the HTTP client's default otherwise).
+     */
+    private int maxKeepAliveInSec;
+
+    /**
+     * Whether the idempotent operations (timestamp Sign requests and Pending requests) send a second, identical request when the
+     * first one is slower than the configured percentile of the recent latencies, and use the first response that arrives.
+     */
+    private boolean hedging;
+    private int hedgingPercentile = CLIENT_HEDGING_PERCENTILE;
+    private int hedgingMinDelayInMillis = CLIENT_HEDGING_MIN_DELAY_IN_MILLIS;
+
+    /**
+     * The response timeout of each attempt of a hedged operation. 0 means that the responseTimeoutInSec is used.
+     */
+    private int hedgingAttemptTimeoutInMillis;
+
     // ----------------------------------------------------------------------------------------------------
 
     private boolean enableProxy;
@@ -145,8 +231,8 @@ public class RestClientConfiguration {
     }
 
     public void setMaxTotalConnections(int maxTotalConnections) {
-        valueBetween(maxTotalConnections, 2, 100,
-                "The maxTotalConnections parameter of the REST client configuration must be between 2 and 100", null);
+        valueBetween(maxTotalConnections, 2, CLIENT_MAX_CONNECTIONS_LIMIT,
+                "The maxTotalConnections parameter of the REST client configuration must be between 2 and " + CLIENT_MAX_CONNECTIONS_LIMIT, null);
         this.maxTotalConnections = maxTotalConnections;
     }
 
@@ -155,8 +241,8 @@ public class RestClientConfiguration {
     }
 
     public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
-        valueBetween(maxConnectionsPerRoute, 2, 100,
-                "The maxConnectionsPerRoute parameter of the REST client configuration must be between 2 and 100", null);
+        valueBetween(maxConnectionsPerRoute, 2, CLIENT_MAX_CONNECTIONS_LIMIT,
+                "The maxConnectionsPerRoute parameter of the REST client configuration must be between 2 and " + CLIENT_MAX_CONNECTIONS_LIMIT, null);
         this.maxConnectionsPerRoute = maxConnectionsPerRoute;
     }
 
@@ -180,6 +266,166 @@ public class RestClientConfiguration {
         this.responseTimeoutInSec = responseTimeoutInSec;
     }
 
+    public boolean isStreamingJson() {
+        return streamingJson;
+    }
+
+    public void setStreamingJson(boolean streamingJson) {
+        this.streamingJson = streamingJson;
+    }
+
+    public boolean isStreamingResponseParser() {
+        return streamingResponseParser;
+    }
+
+    public void setStreamingResponseParser(boolean streamingResponseParser) {
+        this.streamingResponseParser = streamingResponseParser;
+    }
+
+    public boolean isAutomaticRetries() {
+        return automaticRetries;
+    }
+
+    public void setAutomaticRetries(boolean automaticRetries) {
+        this.automaticRetries = automaticRetries;
+    }
+
+    public boolean isAdaptivePool() {
+        return adaptivePool;
+    }
+
+    public void setAdaptivePool(boolean adaptivePool) {
+        this.adaptivePool = adaptivePool;
+    }
+
+    public int getAdaptivePoolIntervalInSec() {
+        return adaptivePoolIntervalInSec;
+    }
+
+    public void setAdaptivePoolIntervalInSec(int adaptivePoolIntervalInSec) {
+        valueBetween(adaptivePoolIntervalInSec, 1, 300,
+                "The adaptivePoolIntervalInSec parameter of the REST client configuration must be between 1 and 300", null);
+        this.adaptivePoolIntervalInSec = adaptivePoolIntervalInSec;
+    }
+
+    public int getAdaptivePoolTargetLeaseWaitInMillis() {
+        return adaptivePoolTargetLeaseWaitInMillis;
+    }
+
+    public void setAdaptivePoolTargetLeaseWaitInMillis(int adaptivePoolTargetLeaseWaitInMillis) {
+        valueBetween(adaptivePoolTargetLeaseWaitInMillis, 1, 60000,
+                "The adaptivePoolTargetLeaseWaitInMillis parameter of the REST client configuration must be between 1 and 60000", null);
+        this.adaptivePoolTargetLeaseWaitInMillis = adaptivePoolTargetLeaseWaitInMillis;
+    }
+
+    public int getWarmUpConnections() {
+        return warmUpConnections;
+    }
+
+    public void setWarmUpConnections(int warmUpConnections) {
+        valueBetween(warmUpConnections, 0, CLIENT_MAX_CONNECTIONS_LIMIT,
+                "The warmUpConnections parameter of the REST client configuration must be between 0 and " + CLIENT_MAX_CONNECTIONS_LIMIT, null);
+        this.warmUpConnections = warmUpConnections;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        valueBetween(tlsSessionCacheSize, 0, 100000,
+                "The tlsSessionCacheSize parameter of the REST client configuration must be between 0 and 100000", null);
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    public int getTlsSessionTimeoutInSec() {
+        return tlsSessionTimeoutInSec;
+    }
+
+    public void setTlsSessionTimeoutInSec(int tlsSessionTimeoutInSec) {
+        valueBetween(tlsSessionTimeoutInSec, 0, 86400,
+                "The tlsSessionTimeoutInSec parameter of the REST client configuration must be between 0 and 86400", null);
+        this.tlsSessionTimeoutInSec = tlsSessionTimeoutInSec;
+    }
+
+    public int getConnectionTimeToLiveInSec() {
+        return connectionTimeToLiveInSec;
+    }
+
+    public void setConnectionTimeToLiveInSec(int connectionTimeToLiveInSec) {
+        valueBetween(connectionTimeToLiveInSec, 0, 86400,
+                "The connectionTimeToLiveInSec parameter of the REST client configuration must be between 0 and 86400", null);
+        this.connectionTimeToLiveInSec = connectionTimeToLiveInSec;
+    }
+
+    public int getIdleConnectionTimeoutInSec() {
+        return idleConnectionTimeoutInSec;
+    }
+
+    public void setIdleConnectionTimeoutInSec(int idleConnectionTimeoutInSec) {
+        valueBetween(idleConnectionTimeoutInSec, 0, 86400,
+                "The idleConnectionTimeoutInSec parameter of the REST client configuration must be between 0 and 86400", null);
+        this.idleConnectionTimeoutInSec = idleConnectionTimeoutInSec;
+    }
+
+    public int getValidateAfterInactivityInMillis() {
+        return validateAfterInactivityInMillis;
+    }
+
+    public void setValidateAfterInactivityInMillis(int validateAfterInactivityInMillis) {
+        valueBetween(validateAfterInactivityInMillis, 0, 3600000,
+                "The validateAfterInactivityInMillis parameter of the REST client configuration must be between 0 and 3600000", null);
+        this.validateAfterInactivityInMillis = validateAfterInactivityInMillis;
+    }
+
+    public int getMaxKeepAliveInSec() {
+        return maxKeepAliveInSec;
+    }
+
+    public void setMaxKeepAliveInSec(int maxKeepAliveInSec) {
+        valueBetween(maxKeepAliveInSec, 0, 86400,
+                "The maxKeepAliveInSec parameter of the REST client configuration must be between 0 and 86400", null);
+        this.maxKeepAliveInSec = maxKeepAliveInSec;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    public int getHedgingPercentile() {
+        return hedgingPercentile;
+    }
+
+    public void setHedgingPercentile(int hedgingPercentile) {
+        valueBetween(hedgingPercentile, 50, 99,
+                "The hedgingPercentile parameter of the REST client configuration must be between 50 and 99", null);
+        this.hedgingPercentile = hedgingPercentile;
+    }
+
+    public int getHedgingMinDelayInMillis() {
+        return hedgingMinDelayInMillis;
+    }
+
+    public void setHedgingMinDelayInMillis(int hedgingMinDelayInMillis) {
+        valueBetween(hedgingMinDelayInMillis, 1, 60000,
+                "The hedgingMinDelayInMillis parameter of the REST client configuration must be between 1 and 60000", null);
+        this.hedgingMinDelayInMillis = hedgingMinDelayInMillis;
+    }
+
+    public int getHedgingAttemptTimeoutInMillis() {
+        return hedgingAttemptTimeoutInMillis;
+    }
+
+    public void setHedgingAttemptTimeoutInMillis(int hedgingAttemptTimeoutInMillis) {
+        valueBetween(hedgingAttemptTimeoutInMillis, 0, 100000,
+                "The hedgingAttemptTimeoutInMillis parameter of the REST client configuration must be between 0 and 100000", null);
+        this.hedgingAttemptTimeoutInMillis = hedgingAttemptTimeoutInMillis;
+    }
+
     public boolean isEnableProxy() {
         return enableProxy;
     }
@@ -266,6 +512,27 @@ public class RestClientConfiguration {
         setMaxConnectionsPerRoute(getIntNotNull(provider, "client.http.maxConnectionsPerRoute"));
         setConnectionTimeoutInSec(getIntNotNull(provider, "client.http.connectionTimeoutInSeconds"));
         setResponseTimeoutInSec(getIntNotNull(provider, "client.http.responseTimeoutInSeconds"));
+        setStreamingJson(Boolean.parseBoolean(provider.getProperty("client.http.streamingJson")));
+        setStreamingResponseParser(Boolean.parseBoolean(provider.getProperty("client.http.streamingResponseParser")));
+        setAdaptivePool(Boolean.parseBoolean(provider.getProperty("client.http.adaptivePool")));
+        setAdaptivePoolIntervalInSec(getIntOrDefault(provider, "client.http.adaptivePoolIntervalInSeconds",
+                CLIENT_ADAPTIVE_POOL_INTERVAL_IN_SEC));
+        setAdaptivePoolTargetLeaseWaitInMillis(getIntOrDefault(provider, "client.http.adaptivePoolTargetLeaseWaitInMillis",
+                CLIENT_ADAPTIVE_POOL_TARGET_LEASE_WAIT_IN_MILLIS));
+        setWarmUpConnections(getIntOrDefault(provider, "client.http.warmUpConnections", 0));
+        setTlsSessionCacheSize(getIntOrDefault(provider, "client.tls.sessionCacheSize", 0));
+        setTlsSessionTimeoutInSec(getIntOrDefault(provider, "client.tls.sessionTimeoutInSeconds", 0));
+        setConnectionTimeToLiveInSec(getIntOrDefault(provider, "client.http.connectionTimeToLiveInSeconds", 0));
+        setIdleConnectionTimeoutInSec(getIntOrDefault(provider, "client.http.idleConnectionTimeoutInSeconds", 0));
+        setValidateAfterInactivityInMillis(getIntOrDefault(provider, "client.http.validateAfterInactivityInMillis",
+                CLIENT_VALIDATE_AFTER_INACTIVITY_IN_MILLIS));
+        setMaxKeepAliveInSec(getIntOrDefault(provider, "client.http.maxKeepAliveInSeconds", 0));
+        setHedging(Boolean.parseBoolean(provider.getProperty("client.http.hedging")));
+        setHedgingPercentile(getIntOrDefault(provider, "client.http.hedgingPercentile",
+                CLIENT_HEDGING_PERCENTILE));
+        setHedgingMinDelayInMillis(getIntOrDefault(provider, "client.http.hedgingMinDelayInMillis",
+                CLIENT_HEDGING_MIN_DELAY_IN_MILLIS));
+        setHedgingAttemptTimeoutInMillis(getIntOrDefault(provider, "client.http.hedgingAttemptTimeoutInMillis", 0));
 
         setEnableProxy(getBooleanNotNull(provider, "server.rest.proxy.enableProxy"));
         setProxyHost(provider.getProperty("server.rest.proxy.host"));
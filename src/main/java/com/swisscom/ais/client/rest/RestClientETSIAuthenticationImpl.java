@@ -1,6 +1,5 @@
 package com.swisscom.ais.client.rest;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.swisscom.ais.client.RestClientException;
 import com.swisscom.ais.client.rest.model.etsi.auth.TokenRequest;
 import com.swisscom.ais.client.rest.model.etsi.auth.TokenResponse;
@@ -11,7 +10,6 @@ import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.NameValuePair;
-import org.apache.hc.core5.http.ParseException;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.message.BasicNameValuePair;
 
@@ -46,27 +44,13 @@ public class RestClientETSIAuthenticationImpl extends AbstractRestClientImpl imp
         logProtocol.info("{}: Sending request payload: {}", operationName, nameValuePairList);
         try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
             logProtocol.info("{}: Received HTTP status code: {} - {}", operationName, response.getCode(), trace.getId());
-            String responseJson;
-            try {
-                responseJson = EntityUtils.toString(response.getEntity());
-            } catch (ParseException e) {
-                throw new RestClientException("Failed to interpret the HTTP response content as a string, for operation " +
-                        operationName + " - " + trace.getId(), e);
-            }
             if (response.getCode() == 200) {
-                logResponse(responseJson, operationName, trace, String.class.getSimpleName());
-                try {
-                    return jacksonMapper.readValue(responseJson, TokenResponse.class);
-                } catch (JsonProcessingException e) {
-                    throw new RestClientException("Failed to deserialize JSON content to object of type " +
-                            String.class.getSimpleName() + " for operation " +
-                            operationName + " - " +
-                            trace.getId(), e);
-                }
+                return deserializeResponse(EntityUtils.toByteArray(response.getEntity()), TokenResponse.class, operationName, trace);
             } else {
-                throw new RestClientException("Received fault response: HTTP " +
+                EntityUtils.consume(response.getEntity());
+                throw new FaultResponseException("Received fault response: HTTP " +
                         response.getCode() + " " +
-                        response.getReasonPhrase() + " - " + trace.getId());
+                        response.getReasonPhrase() + " - " + trace.getId(), response.getCode());
             }
         } catch (SSLException e) {
             throw new RestClientException("TLS/SSL connection failure for " + operationName + " - " + trace.getId(), e);
@@ -82,5 +66,6 @@ public class RestClientETSIAuthenticationImpl extends AbstractRestClientImpl imp
             logClient.debug("Closing the embedded HTTP client");
             httpClient.close();
         }
+        closeConnectionPoolMonitor();
     }
 }
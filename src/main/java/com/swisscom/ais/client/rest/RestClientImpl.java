@@ -15,36 +15,59 @@
  */
 package com.swisscom.ais.client.rest;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.swisscom.ais.client.RestClientException;
 import com.swisscom.ais.client.rest.model.etsi.ETSISignResponse;
 import com.swisscom.ais.client.rest.model.etsi.ETSISigningRequest;
 import com.swisscom.ais.client.rest.model.pendingreq.AISPendingRequest;
 import com.swisscom.ais.client.rest.model.signreq.AISSignRequest;
 import com.swisscom.ais.client.rest.model.signresp.AISSignResponse;
+import com.swisscom.ais.client.utils.NamedThreadFactory;
 import com.swisscom.ais.client.utils.Trace;
-import org.apache.commons.codec.CharEncoding;
+import org.apache.hc.client5.http.classic.methods.HttpOptions;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpHeaders;
-import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
-import org.apache.hc.core5.http.io.entity.StringEntity;
 
 import javax.net.ssl.SSLException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class RestClientImpl extends AbstractRestClientImpl implements RestClient {
 
+    /**
+     * The maximum number of connections that one warm-up opens. Each connection needs its own thread while it is being opened.
+     */
+    private static final int WARM_UP_MAX_CONNECTIONS = 64;
+
     @Override
     public AISSignResponse requestSignature(AISSignRequest requestWrapper, Trace trace) {
+        if (isHedged(requestWrapper)) {
+            return sendAndReceiveHedged("SignRequest", config.getRestServiceSignUrl(),
+                    requestWrapper, AISSignResponse.class, trace);
+        }
         return sendAndReceive("SignRequest", config.getRestServiceSignUrl(),
                 requestWrapper, AISSignResponse.class, trace);
     }
 
     @Override
     public AISSignResponse pollForSignatureStatus(AISPendingRequest requestWrapper, Trace trace) {
+        if (isHedged(requestWrapper)) {
+            return sendAndReceiveHedged("PendingRequest", config.getRestServicePendingUrl(),
+                    requestWrapper, AISSignResponse.class, trace);
+        }
         return sendAndReceive("PendingRequest", config.getRestServicePendingUrl(),
                 requestWrapper, AISSignResponse.class, trace);
     }
@@ -54,51 +77,93 @@ public class RestClientImpl extends AbstractRestClientImpl implements RestClient
         return sendAndReceive(signingRequest, trace);
     }
 
-    private ETSISignResponse sendAndReceive(ETSISigningRequest signingRequest, Trace trace) {
-        String operationName = "SignEtsi";
-        logProtocol.debug("{}: Serializing object of type {} to JSON - {}",
-                operationName, signingRequest.getClass().getSimpleName(), trace.getId());
-        String requestJson;
+    /**
+     * Sends one OPTIONS request per connection to the AIS sign URL. Each request holds on to its connection until all the others
+     * are done, so that every request opens its own connection (and performs its own TLS handshake) instead of reusing one that
+     * was just released. The status code of the responses does not matter. At most {@link #WARM_UP_MAX_CONNECTIONS} connections
+     * are opened.
+     */
+    @Override
+    public int warmUp(int connectionCount, Trace trace) {
+        int count = Math.min(limitWarmUpConnections(connectionCount), WARM_UP_MAX_CONNECTIONS);
+        if (count == 0) {
+            return 0;
+        }
+        String serviceUrl = config.getRestServiceSignUrl();
+        long startTime = System.currentTimeMillis();
+        CountDownLatch allDone = new CountDownLatch(count);
+        ExecutorService executor = Executors.newFixedThreadPool(count, new NamedThreadFactory("ais-client-warm-up"));
+        try {
+            List<Future<Boolean>> results = new ArrayList<>(count);
+            for (int index = 0; index < count; index++) {
+                results.add(executor.submit(() -> openConnection(serviceUrl, allDone, trace)));
+            }
+            int openedCount = 0;
+            for (Future<Boolean> result : results) {
+                try {
+                    if (result.get()) {
+                        openedCount++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    logClient.warn("Failed to open a connection during the warm-up - {}", trace.getId(), e.getCause());
+                }
+            }
+            logClient.info("Warm-up: opened {} of {} connections to [{}] in {} ms - {}",
+                           openedCount, count, serviceUrl, System.currentTimeMillis() - startTime, trace.getId());
+            return openedCount;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean openConnection(String serviceUrl, CountDownLatch allDone, Trace trace) {
+        boolean[] counted = new boolean[1];
         try {
-            requestJson = jacksonMapper.writeValueAsString(signingRequest);
-        } catch (JsonProcessingException e) {
-            throw new RestClientException("Failed to serialize request object to JSON, for operation " +
-                    operationName + " - " + trace.getId(), e);
+            return httpClient.execute(new HttpOptions(serviceUrl), response -> {
+                EntityUtils.consume(response.getEntity());
+                counted[0] = true;
+                allDone.countDown();
+                try {
+                    allDone.await(config.getConnectionTimeoutInSec() + config.getResponseTimeoutInSec(), TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            logClient.warn("Failed to open a connection to [{}] during the warm-up: {} - {}", serviceUrl, e.getMessage(), trace.getId());
+            return false;
+        } finally {
+            if (!counted[0]) {
+                allDone.countDown();
+            }
         }
+    }
 
+    private ETSISignResponse sendAndReceive(ETSISigningRequest signingRequest, Trace trace) {
+        String operationName = "SignEtsi";
         String serviceUrl = config.getAisSigningUrl();
 
         HttpPost httpPost = new HttpPost(serviceUrl);
-        httpPost.setEntity(new StringEntity(requestJson, ContentType.APPLICATION_JSON, false));
-
+        httpPost.setEntity(createRequestEntity(operationName, serviceUrl, signingRequest, trace));
         logProtocol.info("{}: Sending request to: [{}] - {}", operationName, serviceUrl, trace.getId());
-        logReqResp.info("{}: Sending JSON to: [{}], content: [{}] - {}", operationName, serviceUrl, requestJson, trace.getId());
-        logFullReqResp.info("{}: Sending JSON to: [{}], content: [{}] - {}", operationName, serviceUrl, requestJson, trace.getId());
 
         try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
             logProtocol.info("{}: Received HTTP status code: {} - {}", operationName, response.getCode(), trace.getId());
-            String responseJson;
-            try {
-                responseJson = EntityUtils.toString(response.getEntity());
-            } catch (ParseException e) {
-                throw new RestClientException("Failed to interpret the HTTP response content as a string, for operation " +
-                        operationName + " - " + trace.getId(), e);
-            }
-            logResponse(responseJson, operationName, trace, String.class.getSimpleName());
-
             if (response.getCode() == 200) {
-                try {
-                    return jacksonMapper.readValue(responseJson, ETSISignResponse.class);
-                } catch (JsonProcessingException e) {
-                    throw new RestClientException("Failed to deserialize JSON content to object of type " +
-                            String.class.getSimpleName() + " for operation " +
-                            operationName + " - " +
-                            trace.getId(), e);
-                }
+                return readResponse(operationName, response, ETSISignResponse.class, trace);
             } else {
-                throw new RestClientException("Received fault response: HTTP " +
+                if (isBodyLoggingEnabled()) {
+                    logResponse(EntityUtils.toByteArray(response.getEntity()), operationName, trace);
+                } else {
+                    EntityUtils.consume(response.getEntity());
+                }
+                throw new FaultResponseException("Received fault response: HTTP " +
                         response.getCode() + " " +
-                        response.getReasonPhrase() + " - " + trace.getId());
+                        response.getReasonPhrase() + " - " + trace.getId(), response.getCode());
             }
         } catch (SSLException e) {
             throw new RestClientException("TLS/SSL connection failure for " + operationName + " - " + trace.getId(), e);
@@ -112,46 +177,59 @@ public class RestClientImpl extends AbstractRestClientImpl implements RestClient
                                                TReq requestObject,
                                                @SuppressWarnings("SameParameterValue") Class<TResp> responseClass,
                                                Trace trace) {
-        logProtocol.debug("{}: Serializing object of type {} to JSON - {}",
-                operationName, requestObject.getClass().getSimpleName(), trace.getId());
-        String requestJson;
-        try {
-            requestJson = jacksonMapper.writeValueAsString(requestObject);
-        } catch (JsonProcessingException e) {
-            throw new RestClientException("Failed to serialize request object to JSON, for operation " +
-                    operationName + " - " + trace.getId(), e);
-        }
+        return execute(operationName, serviceUrl, createHttpPost(operationName, serviceUrl, requestObject, trace), responseClass, trace);
+    }
+
+    /**
+     * Sends the request with hedging (see {@link HedgingPolicy}). Each attempt runs on a thread of the hedging executor and a
+     * cancelled attempt aborts its HTTP request.
+     */
+    private <TReq, TResp> TResp sendAndReceiveHedged(String operationName,
+                                                     String serviceUrl,
+                                                     TReq requestObject,
+                                                     @SuppressWarnings("SameParameterValue") Class<TResp> responseClass,
+                                                     Trace trace) {
+        return waitFor(hedgingPolicy.execute(operationName, () -> {
+            HttpPost httpPost = createHttpPost(operationName, serviceUrl, requestObject, trace);
+            if (hedgedAttemptRequestConfig != null) {
+                httpPost.setConfig(hedgedAttemptRequestConfig);
+            }
+            CompletableFuture<TResp> attempt = new CompletableFuture<>();
+            attempt.whenComplete((response, error) -> {
+                if (attempt.isCancelled()) {
+                    httpPost.cancel();
+                }
+            });
+            hedgingPolicy.getBlockingAttemptExecutor().execute(() -> {
+                try {
+                    attempt.complete(execute(operationName, serviceUrl, httpPost, responseClass, trace));
+                } catch (Exception e) {
+                    attempt.completeExceptionally(e);
+                }
+            });
+            return attempt;
+        }, trace));
+    }
 
+    private HttpPost createHttpPost(String operationName, String serviceUrl, Object requestObject, Trace trace) {
         HttpPost httpPost = new HttpPost(serviceUrl);
-        httpPost.setEntity(new StringEntity(requestJson, ContentType.APPLICATION_JSON, CharEncoding.UTF_8, false));
+        httpPost.setEntity(createRequestEntity(operationName, serviceUrl, requestObject, trace));
         httpPost.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON);
+        return httpPost;
+    }
+
+    private <TResp> TResp execute(String operationName, String serviceUrl, HttpPost httpPost, Class<TResp> responseClass, Trace trace) {
         logProtocol.info("{}: Sending request to: [{}] - {}", operationName, serviceUrl, trace.getId());
-        logReqResp.info("{}: Sending JSON to: [{}], content: [{}] - {}", operationName, serviceUrl, requestJson, trace.getId());
-        logFullReqResp.info("{}: Sending JSON to: [{}], content: [{}] - {}", operationName, serviceUrl, requestJson, trace.getId());
 
         try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
             logProtocol.info("{}: Received HTTP status code: {} - {}", operationName, response.getCode(), trace.getId());
-            String responseJson;
-            try {
-                responseJson = EntityUtils.toString(response.getEntity());
-            } catch (ParseException e) {
-                throw new RestClientException("Failed to interpret the HTTP response content as a string, for operation " +
-                        operationName + " - " + trace.getId(), e);
-            }
             if (response.getCode() == 200) {
-                logResponse(responseJson, operationName, trace, responseClass.getSimpleName());
-                try {
-                    return jacksonMapper.readValue(responseJson, responseClass);
-                } catch (JsonProcessingException e) {
-                    throw new RestClientException("Failed to deserialize JSON content to object of type " +
-                            responseClass.getSimpleName() + " for operation " +
-                            operationName + " - " +
-                            trace.getId(), e);
-                }
+                return readResponse(operationName, response, responseClass, trace);
             } else {
-                throw new RestClientException("Received fault response: HTTP " +
+                EntityUtils.consume(response.getEntity());
+                throw new FaultResponseException("Received fault response: HTTP " +
                         response.getCode() + " " +
-                        response.getReasonPhrase() + " - " + trace.getId());
+                        response.getReasonPhrase() + " - " + trace.getId(), response.getCode());
             }
         } catch (SSLException e) {
             throw new RestClientException("TLS/SSL connection failure for " + operationName + " - " + trace.getId(), e);
@@ -160,6 +238,36 @@ public class RestClientImpl extends AbstractRestClientImpl implements RestClient
         }
     }
 
+    /**
+     * Creates the entity for a request. In streaming mode (and when the bodies are not logged), the request is serialized directly
+     * into the connection; otherwise it is serialized once to UTF-8 bytes, without going through a String.
+     */
+    private HttpEntity createRequestEntity(String operationName, String serviceUrl, Object requestObject, Trace trace) {
+        if (config.isStreamingJson() && !isBodyLoggingEnabled()) {
+            logProtocol.debug("{}: Streaming object of type {} as JSON - {}",
+                    operationName, requestObject.getClass().getSimpleName(), trace.getId());
+            return new JsonStreamingEntity(jsonCodec.writerFor(requestObject.getClass()), requestObject);
+        }
+        byte[] requestJson = serializeRequest(requestObject, operationName, trace);
+        logRequest(requestJson, operationName, serviceUrl, trace);
+        return new ByteArrayEntity(requestJson, ContentType.APPLICATION_JSON);
+    }
+
+    private <TResp> TResp readResponse(String operationName, CloseableHttpResponse response, Class<TResp> responseClass,
+                                       Trace trace) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            throw new RestClientException("Received an empty HTTP response, for operation " + operationName + " - " + trace.getId());
+        }
+        if (config.isStreamingJson() && !isBodyLoggingEnabled()) {
+            try (InputStream responseJson = entity.getContent()) {
+                TResp result = deserializeResponse(responseJson, responseClass, operationName, trace);
+                EntityUtils.consume(entity);
+                return result;
+            }
+        }
+        return deserializeResponse(EntityUtils.toByteArray(entity), responseClass, operationName, trace);
+    }
 
     // ----------------------------------------------------------------------------------------------------
 
@@ -170,6 +278,9 @@ public class RestClientImpl extends AbstractRestClientImpl implements RestClient
             logClient.debug("Closing the embedded HTTP client");
             httpClient.close();
         }
+        stopWarmUp();
+        closeConnectionPoolMonitor();
+        closeHedgingPolicy();
     }
 
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.rest;
+
+import org.apache.hc.client5.http.ConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.core5.http.HeaderElement;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.message.MessageSupport;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.TimeValue;
+
+import java.util.Iterator;
+
+/**
+ * Keep-alive strategy for the pooled connections to AIS. The duration announced by the server in the Keep-Alive response header
+ * (timeout=N) is used, capped by the configured maximum, so that the client never keeps a connection longer than the server (or a
+ * load balancer in front of it) is willing to. When the server does not announce any duration, the configured maximum is used, or
+ * the HTTP client's default if no maximum is configured.
+ */
+class ServerKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+    private final TimeValue maxKeepAlive;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    ServerKeepAliveStrategy(RestClientConfiguration config) {
+        maxKeepAlive = config.getMaxKeepAliveInSec() > 0 ? TimeValue.ofSeconds(config.getMaxKeepAliveInSec()) : null;
+    }
+
+    @Override
+    public TimeValue getKeepAliveDuration(HttpResponse response, HttpContext context) {
+        TimeValue serverKeepAlive = getServerKeepAlive(response);
+        if (serverKeepAlive != null) {
+            return maxKeepAlive != null && serverKeepAlive.compareTo(maxKeepAlive) > 0 ? maxKeepAlive : serverKeepAlive;
+        }
+        if (maxKeepAlive != null) {
+            return maxKeepAlive;
+        }
+        return DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static TimeValue getServerKeepAlive(HttpResponse response) {
+        Iterator<HeaderElement> elements = MessageSupport.iterate(response, HttpHeaders.KEEP_ALIVE);
+        while (elements.hasNext()) {
+            HeaderElement element = elements.next();
+            if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                try {
+                    return TimeValue.ofSeconds(Long.parseLong(element.getValue().trim()));
+                } catch (NumberFormatException ignored) {
+                    // malformed header, look for another timeout value
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -1,15 +1,30 @@
 package com.swisscom.ais.client.utils;
 
 import com.swisscom.ais.client.RestClientException;
+import com.swisscom.ais.client.impl.DocumentStaging;
+import com.swisscom.ais.client.impl.InMemoryDocumentStaging;
 import com.swisscom.ais.client.impl.PdfDocument;
+import com.swisscom.ais.client.impl.VisualSignatureTemplateCache;
 import com.swisscom.ais.client.model.AbstractUserData;
 import com.swisscom.ais.client.model.PdfHandle;
 import com.swisscom.ais.client.model.SignatureMode;
 import com.swisscom.ais.client.model.VisibleSignatureDefinition;
 import com.swisscom.ais.client.rest.model.SignatureType;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
+import org.apache.pdfbox.io.RandomAccessRead;
 
-import java.io.FileInputStream;
+import java.io.Closeable;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class DocumentUtils {
 
@@ -18,19 +33,86 @@ public class DocumentUtils {
                                              SignatureType signatureType,
                                              AbstractUserData userData,
                                              Trace trace) {
+        return prepareOneDocumentForSigning(documentHandle, signatureMode, signatureType, userData,
+                                            signatureType.getEstimatedSignatureSizeInBytes(), new InMemoryDocumentStaging(),
+                                            MemoryUsageSetting.setupMainMemoryOnly(), null, trace);
+    }
+
+    public static PdfDocument prepareOneDocumentForSigning(PdfHandle documentHandle,
+                                             SignatureMode signatureMode,
+                                             SignatureType signatureType,
+                                             AbstractUserData userData,
+                                             int estimatedSignatureSizeInBytes,
+                                             DocumentStaging documentStaging,
+                                             MemoryUsageSetting memoryUsageSetting,
+                                             VisualSignatureTemplateCache visualSignatureTemplateCache,
+                                             Trace trace) {
+        PdfDocument newDocument = null;
+        Closeable input = null;
+        OutputStream output = null;
         try {
-            FileInputStream fileIn = new FileInputStream(documentHandle.getInputFromFile());
-            FileOutputStream fileOut = new FileOutputStream(documentHandle.getOutputToFile());
             VisibleSignatureDefinition signatureDefinition = documentHandle.getVisibleSignatureDefinition();
-
-            PdfDocument newDocument = new PdfDocument(documentHandle.getOutputToFile(), fileIn, fileOut, signatureDefinition, trace);
-            newDocument.prepareForSigning(documentHandle.getDigestAlgorithm(), signatureType, userData);
+            String name = documentHandle.getOutputName();
+            if (documentHandle.getInputFromStream() != null) {
+                InputStream streamInput = documentHandle.getInputFromStream();
+                input = streamInput;
+                output = openOutput(documentHandle);
+                newDocument = new PdfDocument(name, streamInput, output, signatureDefinition, documentStaging, memoryUsageSetting,
+                                              visualSignatureTemplateCache, trace);
+            } else {
+                RandomAccessRead randomAccessInput = openRandomAccessInput(documentHandle);
+                input = randomAccessInput;
+                output = openOutput(documentHandle);
+                newDocument = new PdfDocument(name, randomAccessInput, output, signatureDefinition, documentStaging, memoryUsageSetting,
+                                              visualSignatureTemplateCache, trace);
+            }
+            newDocument.prepareForSigning(documentHandle.getDigestAlgorithm(), signatureType, estimatedSignatureSizeInBytes, userData);
             return newDocument;
         } catch (Exception e) {
+            if (newDocument != null) {
+                newDocument.close();
+            } else {
+                Utils.closeResource(input, trace);
+                Utils.closeResource(output, trace);
+                Utils.closeResource(documentStaging, trace);
+            }
             throw new RestClientException("Failed to prepare the document [" +
-                    documentHandle.getInputFromFile() + "] for " +
+                    documentHandle.getInputName() + "] for " +
                     signatureMode.getFriendlyName() + " signing", e);
         }
     }
 
+    // ----------------------------------------------------------------------------------------------------
+
+    private static RandomAccessRead openRandomAccessInput(PdfHandle documentHandle) throws IOException {
+        if (documentHandle.getInputFromBuffer() != null) {
+            return new ByteBufferRandomAccessRead(documentHandle.getInputFromBuffer());
+        }
+        if (documentHandle.getInputFromChannel() != null) {
+            return new SeekableByteChannelRandomAccessRead(documentHandle.getInputFromChannel());
+        }
+        Path path = documentHandle.getInputFromPath() != null ? documentHandle.getInputFromPath()
+                                                             : Paths.get(documentHandle.getInputFromFile());
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            return new RandomAccessBufferedFileInputStream(path.toFile());
+        }
+        return new SeekableByteChannelRandomAccessRead(Files.newByteChannel(path, StandardOpenOption.READ));
+    }
+
+    private static OutputStream openOutput(PdfHandle documentHandle) throws IOException {
+        if (documentHandle.getOutputToStream() != null) {
+            return documentHandle.getOutputToStream();
+        }
+        if (documentHandle.getOutputToChannel() != null) {
+            return Channels.newOutputStream(documentHandle.getOutputToChannel());
+        }
+        Path path = documentHandle.getOutputToPath() != null ? documentHandle.getOutputToPath()
+                                                            : Paths.get(documentHandle.getOutputToFile());
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            // a FileOutputStream lets the staged document be transferred to the output file channel to channel
+            return new FileOutputStream(path.toFile());
+        }
+        return Files.newOutputStream(path);
+    }
+
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Shortens the large Base64 values (signatures, certificates, CRLs, OCSP responses) of a JSON content, so that it can be logged.
+ * A value is replaced with "..." when it is enclosed in the bound characters and consists of at least the configured number of
+ * Base64 (standard or URL-safe) characters. This is the same as the regular expression
+ * <code>"[A-Za-z0-9+\\/=_-]{500,}"</code>, but the content is scanned only once, without backtracking.
+ * <p>
+ * The redactor holds no state between calls and can be shared between threads. Besides Strings and UTF-8 bytes, it can also
+ * copy a {@link Reader} into a {@link Writer}, keeping in memory only the value that is currently being scanned.
+ */
+public class LargeBase64ContentRedactor {
+
+    public static final int DEFAULT_MIN_LENGTH = 500;
+
+    private static final String REPLACEMENT_TEXT = "...";
+    private static final byte[] REPLACEMENT = REPLACEMENT_TEXT.getBytes(StandardCharsets.US_ASCII);
+    private static final int IO_BUFFER_SIZE = 8192;
+    private static final boolean[] BASE64_CHARS = new boolean[128];
+
+    static {
+        for (char c = 'A'; c <= 'Z'; c++) {
+            BASE64_CHARS[c] = true;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            BASE64_CHARS[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            BASE64_CHARS[c] = true;
+        }
+        for (char c : "+\\/=_-".toCharArray()) {
+            BASE64_CHARS[c] = true;
+        }
+    }
+
+    private static final LargeBase64ContentRedactor JSON_STRINGS_REDACTOR = new LargeBase64ContentRedactor('"', '"', DEFAULT_MIN_LENGTH);
+
+    private final char leftBoundChar;
+    private final char rightBoundChar;
+    private final int minLength;
+
+    // ----------------------------------------------------------------------------------------------------
+
+    public LargeBase64ContentRedactor(char leftBoundChar, char rightBoundChar, int minLength) {
+        if (!isAscii(leftBoundChar) || !isAscii(rightBoundChar)) {
+            throw new IllegalArgumentException("The bound characters must be ASCII characters");
+        }
+        if (minLength < 1) {
+            throw new IllegalArgumentException("The minimum length must be at least 1");
+        }
+        this.leftBoundChar = leftBoundChar;
+        this.rightBoundChar = rightBoundChar;
+        this.minLength = minLength;
+    }
+
+    /**
+     * @return the (shared) redactor for the JSON string values (enclosed in double quotes)
+     */
+    public static LargeBase64ContentRedactor forJsonStrings() {
+        return JSON_STRINGS_REDACTOR;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Redacts a UTF-8 encoded content. The Base64 characters and the bounds are all ASCII characters, so the content is scanned
+     * byte by byte and is decoded to text only once, after the large values have been dropped.
+     */
+    public String redact(byte[] utf8Content) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(Math.min(utf8Content.length, 64 * 1024));
+        int length = utf8Content.length;
+        int copyFrom = 0;
+        int index = 0;
+        while (index < length) {
+            if (utf8Content[index] != leftBoundChar) {
+                index++;
+                continue;
+            }
+            int valueEnd = index + 1;
+            while (valueEnd < length && isBase64Char(utf8Content[valueEnd])) {
+                valueEnd++;
+            }
+            if (valueEnd < length && utf8Content[valueEnd] == rightBoundChar && valueEnd - index - 1 >= minLength) {
+                result.write(utf8Content, copyFrom, index + 1 - copyFrom);
+                result.write(REPLACEMENT, 0, REPLACEMENT.length);
+                result.write(rightBoundChar);
+                copyFrom = valueEnd + 1;
+                index = valueEnd + 1;
+            } else {
+                // the character that stopped the scan can itself be the start of the next value
+                index = valueEnd;
+            }
+        }
+        result.write(utf8Content, copyFrom, length - copyFrom);
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public String redact(CharSequence content) {
+        StringBuilder result = null;
+        int length = content.length();
+        int copyFrom = 0;
+        int index = 0;
+        while (index < length) {
+            if (content.charAt(index) != leftBoundChar) {
+                index++;
+                continue;
+            }
+            int valueEnd = index + 1;
+            while (valueEnd < length && isBase64Char(content.charAt(valueEnd))) {
+                valueEnd++;
+            }
+            if (valueEnd < length && content.charAt(valueEnd) == rightBoundChar && valueEnd - index - 1 >= minLength) {
+                if (result == null) {
+                    result = new StringBuilder(Math.min(length, 64 * 1024));
+                }
+                result.append(content, copyFrom, index + 1).append(REPLACEMENT_TEXT).append(rightBoundChar);
+                copyFrom = valueEnd + 1;
+                index = valueEnd + 1;
+            } else {
+                index = valueEnd;
+            }
+        }
+        if (result == null) {
+            // nothing to shorten
+            return content.toString();
+        }
+        return result.append(content, copyFrom, length).toString();
+    }
+
+    /**
+     * Copies the source into the target, shortening the large values on the way. Only the value that is currently being scanned
+     * is kept in memory. Neither the source nor the target are closed; the target is flushed.
+     */
+    public void redact(Reader source, Writer target) throws IOException {
+        char[] input = new char[IO_BUFFER_SIZE];
+        CharOutput output = new CharOutput(target);
+        StringBuilder value = new StringBuilder();
+        boolean inValue = false;
+        int read;
+        while ((read = source.read(input)) != -1) {
+            for (int index = 0; index < read; index++) {
+                char c = input[index];
+                if (inValue) {
+                    if (isBase64Char(c)) {
+                        value.append(c);
+                        continue;
+                    }
+                    inValue = false;
+                    output.write(leftBoundChar);
+                    if (c == rightBoundChar && value.length() >= minLength) {
+                        output.write(REPLACEMENT_TEXT);
+                        output.write(rightBoundChar);
+                        value.setLength(0);
+                        continue;
+                    }
+                    // not a large value: keep it as it is and process the character that ended it (it can start the next one)
+                    output.write(value);
+                    value.setLength(0);
+                }
+                if (c == leftBoundChar) {
+                    inValue = true;
+                } else {
+                    output.write(c);
+                }
+            }
+        }
+        if (inValue) {
+            output.write(leftBoundChar);
+            output.write(value);
+        }
+        output.flush();
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    private static boolean isBase64Char(int c) {
+        return c >= 0 && c < 128 && BASE64_CHARS[c];
+    }
+
+    private static boolean isAscii(char c) {
+        return c < 128;
+    }
+
+    /**
+     * Collects the output characters in a buffer, so that the target is written in blocks and not char by char.
+     */
+    private static class CharOutput {
+
+        private final Writer target;
+        private final char[] buffer = new char[IO_BUFFER_SIZE];
+        private int length;
+
+        private CharOutput(Writer target) {
+            this.target = target;
+        }
+
+        private void write(char c) throws IOException {
+            if (length == buffer.length) {
+                target.write(buffer, 0, length);
+                length = 0;
+            }
+            buffer[length++] = c;
+        }
+
+        private void write(CharSequence text) throws IOException {
+            if (length + text.length() > buffer.length) {
+                target.write(buffer, 0, length);
+                length = 0;
+                if (text.length() > buffer.length) {
+                    target.append(text);
+                    return;
+                }
+            }
+            for (int index = 0; index < text.length(); index++) {
+                buffer[length++] = text.charAt(index);
+            }
+        }
+
+        private void flush() throws IOException {
+            target.write(buffer, 0, length);
+            length = 0;
+            target.flush();
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 Swisscom Trust Services (Schweiz) AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.swisscom.ais.client.utils;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Exposes a {@link SeekableByteChannel} to PDFBox as a {@link RandomAccessRead}, reading it through a small buffer. This lets
+ * PDFBox jump directly to the parts of the document it needs (e.g. the cross-reference table at the end) instead of first
+ * copying the whole document to memory. The channel is closed when this instance is closed.
+ */
+public class SeekableByteChannelRandomAccessRead implements RandomAccessRead {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final SeekableByteChannel channel;
+    private final long length;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long bufferStart;
+    private long position;
+    private boolean closed;
+
+    public SeekableByteChannelRandomAccessRead(SeekableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.length = channel.size();
+        this.buffer.limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int result = buffer.get((int) (position - bufferStart)) & 0xFF;
+        position++;
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int bufferIndex = (int) (position - bufferStart);
+        int bytesToRead = Math.min(length, buffer.limit() - bufferIndex);
+        System.arraycopy(buffer.array(), bufferIndex, b, offset, bytesToRead);
+        position += bytesToRead;
+        return bytesToRead;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        checkClosed();
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        checkClosed();
+        if (position < 0) {
+            throw new IOException("Invalid position " + position);
+        }
+        this.position = position;
+    }
+
+    @Override
+    public long length() throws IOException {
+        checkClosed();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int peek() throws IOException {
+        int result = read();
+        if (result != -1) {
+            rewind(1);
+        }
+        return result;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException {
+        seek(position - bytes);
+    }
+
+    @Override
+    public byte[] readFully(int length) throws IOException {
+        byte[] result = new byte[length];
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            int count = read(result, bytesRead, length - bytesRead);
+            if (count < 0) {
+                throw new EOFException("Premature end of channel, " + length + " bytes requested, " + bytesRead + " available");
+            }
+            bytesRead += count;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        checkClosed();
+        return position >= length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        checkClosed();
+        return (int) Math.min(Math.max(length - position, 0), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+
+    /**
+     * Makes sure the byte at the current position is in the buffer.
+     *
+     * @return false if the current position is at (or after) the end of the channel
+     */
+    private boolean fillBuffer() throws IOException {
+        checkClosed();
+        if (position >= length) {
+            return false;
+        }
+        if (position >= bufferStart && position < bufferStart + buffer.limit()) {
+            return true;
+        }
+        buffer.clear();
+        channel.position(position);
+        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            // keep reading until the buffer is full or the end of the channel is reached
+        }
+        buffer.flip();
+        bufferStart = position;
+        return buffer.limit() > 0;
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed) {
+            throw new IOException("The channel is already closed");
+        }
+    }
+
+}
@@ -72,10 +72,36 @@ public class Utils {
         }
     }
 
+    public static int getIntOrDefault(ConfigurationProvider provider, String propertyName, int defaultValue) {
+        String value = provider.getProperty(propertyName);
+        if (isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RestClientException("Invalid configuration. The [" + propertyName + "] is not a valid integer: [" + value + "]");
+        }
+    }
+
+    public static double getDoubleOrDefault(ConfigurationProvider provider, String propertyName, double defaultValue) {
+        String value = provider.getProperty(propertyName);
+        if (isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RestClientException("Invalid configuration. The [" + propertyName + "] is not a valid number: [" + value + "]");
+        }
+    }
+
     public static String stripInnerLargeBase64Content(String source, char leftBoundChar, char rightBoundChar) {
-        String pattern = leftBoundChar + "[A-Za-z0-9+\\\\/=_-]{500,}" + rightBoundChar;
-        String replacement = leftBoundChar + "..." + rightBoundChar;
-        return source.replaceAll(pattern, replacement);
+        LargeBase64ContentRedactor redactor = leftBoundChar == '"' && rightBoundChar == '"'
+                                              ? LargeBase64ContentRedactor.forJsonStrings()
+                                              : new LargeBase64ContentRedactor(leftBoundChar, rightBoundChar,
+                                                                               LargeBase64ContentRedactor.DEFAULT_MIN_LENGTH);
+        return redactor.redact(source);
     }
 
     public static void valueNotEmpty(String value, String errorMessage, Trace trace) throws RestClientException {